@@ -14,6 +14,9 @@
 
 package org.blackmist.pantomime;
 
+import java.util.ArrayList;
+import java.util.List;
+
 import jakarta.mail.internet.InternetAddress;
 
 import org.slf4j.Logger;
@@ -63,6 +66,9 @@ public class Address {
     private String comment;
     private String original;
 
+    /* toString(), worked out when first needed */
+    private String string;
+
     private String stringAndClear(StringBuilder builder) {
 
         String s;
@@ -91,9 +97,19 @@ public class Address {
         private int parenStart = -1;
         private int parenEnd = -1;
         private char previousChar = '\0';
+
+        private void reset() {
+            inQuotes = false;
+            angleStart = -1;
+            angleEnd = -1;
+            at = -1;
+            parenStart = -1;
+            parenEnd = -1;
+            previousChar = '\0';
+        }
     }
 
-    private void perChar(Profile profile, char c, int index) {
+    private static void perChar(Profile profile, char c, int index) {
 
         if ( c == '"' ) {
             if ( profile.previousChar != '\\' ) {
@@ -146,7 +162,6 @@ public class Address {
     public Address(String address) {
 
         Profile profile = new Profile();
-        char[] chars;
 
         if ( address == null ) {
             return;
@@ -156,76 +171,145 @@ public class Address {
             return;
         }
 
-        address = address.trim();
+        for ( int index = 0; index < address.length(); index++ ) {
+            perChar(profile, address.charAt(index), index);
+        }
+
+        assignParts(address, 0, address.length(), profile);
+
+    }
+
+    /**
+     * Constructs the address in the given range of a header value, which
+     * has already been scanned into the given profile.
+     */
+    private Address(String value, int start, int end, Profile profile) {
+
+        if ( start == end ) {
+            return;
+        }
+
+        assignParts(value, start, end, profile);
+    }
+
+    /**
+     * Parses a whole address list, such as the value of a To header, in one
+     * pass. Each address is cut out of the value where it lies, rather
+     * than split off and scanned again.
+     */
+    static List<Address> parseList(String value) {
+
+        List<Address> list = new ArrayList<Address>();
+        Profile profile = new Profile();
+        int start = 0;
 
-        original = address;
+        for ( int index = 0; index < value.length(); index++ ) {
 
-        chars = address.toCharArray();
+            char c = value.charAt(index);
 
-        for ( int index = 0; index < chars.length; index++ ) {
+            if ( ( c == ',' ) && ! profile.inQuotes ) {
 
-            char c = chars[index];
+                list.add(new Address(value, start, index, profile));
+                profile.reset();
+                start = index + 1;
 
-            perChar(profile, c, index);
+            } else {
+
+                perChar(profile, c, index);
+            }
         }
 
-        if ( profile.angleStart > -1 ) {
-            assignPartsForAddressWithAngleBrackets(address, profile);
-        } else {
-            assignPartsForAddressWithoutAngleBrackets(address, profile);
+        list.add(new Address(value, start, value.length(), profile));
+
+        return list;
+    }
+
+    /**
+     * Returns the given range of the given string trimmed, or null if
+     * there is nothing left.
+     */
+    private static String part(String string, int start, int end) {
+
+        while ( ( start < end ) && ( string.charAt(start) <= ' ' ) ) {
+            start++;
         }
 
-        cleanupParts();
+        while ( ( end > start ) && ( string.charAt(end - 1) <= ' ' ) ) {
+            end--;
+        }
 
+        if ( start == end ) {
+            return null;
+        }
+
+        return string.substring(start, end);
     }
 
-    private void assignPartsForAddressWithoutAngleBrackets(String address,
+    private void assignParts(String address, int start, int end,
         Profile profile) {
 
+        original = part(address, start, end);
+
+        if ( original == null ) {
+            original = "";
+        }
+
+        if ( profile.angleStart > -1 ) {
+            assignPartsForAddressWithAngleBrackets(address, start, end,
+                profile);
+        } else {
+            assignPartsForAddressWithoutAngleBrackets(address, start, end,
+                profile);
+        }
+    }
+
+    private void assignPartsForAddressWithoutAngleBrackets(String address,
+        int start, int end, Profile profile) {
+
         if ( profile.at > -1 ) {
 
-            local = address.substring(0, profile.at);
+            local = part(address, start, profile.at);
 
             if ( profile.parenStart > -1 ) {
 
-                domain = address.substring(profile.at+1, profile.parenStart);
+                domain = part(address, profile.at+1, profile.parenStart);
 
                 if ( profile.parenEnd > -1 ) {
 
                     /* address is blah@blah.com (blah) */
-                    comment = address.substring(profile.parenStart+1,
+                    comment = part(address, profile.parenStart+1,
                         profile.parenEnd);
                 } else {
                     /* address is blah@blah.com (blah */
-                    comment = address.substring(profile.parenStart+1);
+                    comment = part(address, profile.parenStart+1, end);
                 }
 
             } else {
 
                 /* address is blah@blah.com */
-                domain = address.substring(profile.at+1);
+                domain = part(address, profile.at+1, end);
             }
 
         } else {
 
             if ( profile.parenStart > -1 ) {
 
-                local = address.substring(0, profile.parenStart);
+                local = part(address, start, profile.parenStart);
 
                 if ( profile.parenEnd > -1 ) {
                     /* address is blah (blah) */
-                    comment = address.substring(profile.parenStart+1,
+                    comment = part(address, profile.parenStart+1,
                         profile.parenEnd);
 
                 } else {
                     /* address is blah (blah */
-                    comment = address.substring(profile.parenStart+1);
+                    comment = part(address, profile.parenStart+1, end);
                 }
 
             } else {
 
                 /* address is blah */
-                local = address;
+                local = part(address, start, end);
             }
 
         }
@@ -233,9 +317,9 @@ public class Address {
     }
 
     private void assignPartsForAddressWithAngleBrackets(String address,
-        Profile profile) {
+        int start, int end, Profile profile) {
 
-        personal = address.substring(0, profile.angleStart);
+        assignPersonal(address, start, profile.angleStart);
 
         if ( profile.angleEnd > -1 ) {
 
@@ -244,13 +328,13 @@ public class Address {
 
                 /* address is blah <blah@blah.com> */
 
-                local = address.substring(profile.angleStart+1, profile.at);
-                domain = address.substring(profile.at+1, profile.angleEnd);
+                local = part(address, profile.angleStart+1, profile.at);
+                domain = part(address, profile.at+1, profile.angleEnd);
 
             } else {
 
                 /* address is blah <blah> */
-                local = address.substring(profile.angleStart+1,
+                local = part(address, profile.angleStart+1,
                     profile.angleEnd);
             }
 
@@ -259,11 +343,11 @@ public class Address {
                 if ( profile.parenEnd > -1 ) {
                     
                     /* with a comment of (blah) */
-                    comment = address.substring(profile.parenStart+1,
+                    comment = part(address, profile.parenStart+1,
                         profile.parenEnd);
                 } else {
                     /* with a comment of (blah */
-                    comment = address.substring(profile.parenStart+1);
+                    comment = part(address, profile.parenStart+1, end);
                 }
             }
 
@@ -275,69 +359,41 @@ public class Address {
                 /* address is blah <blah@blah.com */
 
                 if ( profile.angleStart < profile.at ) {
-                    local = address.substring(profile.angleStart+1, profile.at);
-                    domain = address.substring(profile.at+1);
+                    local = part(address, profile.angleStart+1, profile.at);
+                    domain = part(address, profile.at+1, end);
                 }
 
             } else {
 
                 /* address is blah <blah */
-                local = address.substring(profile.angleStart+1);
+                local = part(address, profile.angleStart+1, end);
             }
         }
     }
 
-    private void cleanupParts() {
-
-        if ( personal != null ) {
-
-            personal = personal.trim();
-
-            if ( personal.length() == 0 ) {
-                personal = null;
-            } else {
-
-                if ( personal.charAt(0) == '"' ) {
-                    personal = personal.substring(1);
-                }
-
-                if ( personal.charAt(personal.length()-1) == '"' ) {
-                    personal = personal.substring(0, personal.length()-1);
-                }
-
-                personal = personal.trim();
-
-                if ( personal.length() == 0 ) {
-                    personal = null;
-                }
-            }
+    /**
+     * Sets the personal part from the given range, trimmed and without
+     * the quotes around it.
+     */
+    private void assignPersonal(String address, int start, int end) {
 
+        while ( ( start < end ) && ( address.charAt(start) <= ' ' ) ) {
+            start++;
         }
 
-        if ( local != null ) {
-            local = local.trim();
-
-            if ( local.length() == 0 ) {
-                local = null;
-            }
+        while ( ( end > start ) && ( address.charAt(end - 1) <= ' ' ) ) {
+            end--;
         }
 
-        if ( domain != null ) {
-            domain = domain.trim();
-
-            if ( domain.length() == 0 ) {
-                domain = null;
-            }
+        if ( ( start < end ) && ( address.charAt(start) == '"' ) ) {
+            start++;
         }
 
-        if ( comment != null ) {
-            comment = comment.trim();
-
-            if ( comment.length() == 0 ) {
-                comment = null;
-            }
+        if ( ( start < end ) && ( address.charAt(end - 1) == '"' ) ) {
+            end--;
         }
 
+        personal = part(address, start, end);
     }
 
     private void _setDomain(StringBuilder buffer) {
@@ -402,7 +458,13 @@ public class Address {
      */
     public String toString() {
 
-        StringBuilder builder = new StringBuilder();
+        StringBuilder builder;
+
+        if ( string != null ) {
+            return string;
+        }
+
+        builder = new StringBuilder();
 
         if ( personal != null ) {
             builder.append("\"").append(personal).append("\" <");
@@ -424,7 +486,9 @@ public class Address {
             builder.append(" (").append(comment).append(")");
         }
 
-        return builder.toString();
+        string = builder.toString();
+
+        return string;
 
     }
 
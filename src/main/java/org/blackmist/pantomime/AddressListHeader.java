@@ -0,0 +1,157 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+/**
+ * A To, Cc or Bcc header, kept as a list of addresses.
+ * <p>
+ * The addresses are parsed out of the value the first time they are asked
+ * for, and kept until the value is set again, so asking for them again
+ * costs nothing. Once they are edited, the value is written out again
+ * from them only when it is next read, e.g., when the message is
+ * serialized. Adding, removing or replacing any number of recipients in
+ * between costs time in proportion to the number of addresses, not to the
+ * square of it.
+ */
+final class AddressListHeader extends Header {
+
+    /* null while the value says it all */
+    private List<Address> addresses;
+
+    /* false when the addresses have changed since the value was written */
+    private boolean rendered = true;
+
+    private List<Address> getList() {
+
+        if ( addresses == null ) {
+
+            String value = super.getValue();
+
+            if ( value == null ) {
+                addresses = new ArrayList<Address>();
+            } else {
+                addresses = Address.parseList(value);
+            }
+        }
+
+        return addresses;
+    }
+
+    private void changed() {
+        rendered = false;
+        valueChanged();
+    }
+
+    /**
+     * Returns a copy of the addresses.
+     */
+    List<Address> getAddresses() {
+        return new ArrayList<Address>(getList());
+    }
+
+    void add(Address address) {
+        getList().add(address);
+        changed();
+    }
+
+    void addAll(Collection<Address> newAddresses) {
+        getList().addAll(newAddresses);
+        changed();
+    }
+
+    /**
+     * Replaces the addresses with the given ones.
+     */
+    void setAddresses(Collection<Address> newAddresses) {
+        addresses = new ArrayList<Address>(newAddresses);
+        changed();
+    }
+
+    /**
+     * Removes every address with the same email as the given one.
+     */
+    void remove(Address address) {
+
+        List<Address> list = getList();
+        String email = address.getEmail();
+        int kept = 0;
+
+        for ( int index = 0; index < list.size(); index++ ) {
+
+            Address candidate = list.get(index);
+
+            if ( ! candidate.getEmail().equals(email) ) {
+                list.set(kept++, candidate);
+            }
+        }
+
+        if ( kept == list.size() ) {
+            return;
+        }
+
+        list.subList(kept, list.size()).clear();
+        changed();
+    }
+
+    /**
+     * Retrieves the decoded and unfolded value of this header, written
+     * out from the addresses if they have changed.
+     */
+    public String getValue() {
+
+        if ( ! rendered ) {
+
+            StringBuilder builder = new StringBuilder();
+
+            for ( Address address : addresses ) {
+
+                if ( builder.length() > 0 ) {
+                    builder.append(", ");
+                }
+
+                builder.append(address.toString());
+            }
+
+            setRenderedValue(builder.toString());
+            rendered = true;
+        }
+
+        return super.getValue();
+    }
+
+    public void setValue(String value) {
+
+        if ( value == null ) {
+            return;
+        }
+
+        super.setValue(value);
+        addresses = null;
+        rendered = true;
+    }
+
+    public void setTransferEncodedValue(String value) {
+        super.setTransferEncodedValue(value);
+        addresses = null;
+        rendered = true;
+    }
+
+    protected Header newInstance() {
+        return new AddressListHeader();
+    }
+
+}
@@ -17,6 +17,11 @@ package org.blackmist.pantomime;
 import java.io.File;
 import java.io.IOException;
 
+import java.nio.channels.FileChannel;
+
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
 /**
  * This is an attachment.
  *
@@ -157,5 +162,53 @@ public class Attachment extends Part {
 
         return type.getType();
     }
-}
 
+    /**
+     * Decodes the attachment into the given file, replacing whatever was
+     * in it, and returns the number of bytes written.
+     *
+     * @see #decodeTo(FileChannel, int)
+     */
+    public long decodeTo(Path target, int parallelism)
+        throws PantomimeException {
+
+        FileChannel channel = null;
+
+        try {
+
+            channel = FileChannel.open(target, StandardOpenOption.CREATE,
+                StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+
+            return decodeTo(channel, parallelism);
+
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+
+            if ( channel != null ) {
+
+                try {
+                    channel.close();
+                } catch (IOException e) {
+                    throw new PantomimeException(e);
+                }
+            }
+        }
+    }
+
+    /**
+     * Decodes the attachment into the given file at its current position,
+     * moves the position past it, and returns the number of bytes written.
+     * <p>
+     * A Base64 attachment of a message loaded from a file, left unchanged,
+     * is decoded straight from the file on up to the given number of
+     * threads. Large attachments decode several times faster this way.
+     * Any other attachment is simply copied from its body.
+     */
+    public long decodeTo(FileChannel target, int parallelism)
+        throws PantomimeException {
+
+        return asSinglePart().decodeTo(target, parallelism);
+    }
+}
@@ -17,8 +17,7 @@ package org.blackmist.pantomime;
 import java.io.InputStream;
 import java.io.IOException;
 
-import java.util.BitSet;
-import java.util.LinkedList;
+import java.util.Arrays;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -26,6 +25,10 @@ import org.slf4j.LoggerFactory;
 /**
  * Performs Base64 decoding.
  * <p>
+ * Decoding is table-driven and works on whole arrays. Characters outside
+ * the Base64 alphabet (e.g., line endings) are skipped. Input that is cut
+ * short of a full 4-character quantum is decoded as if it were padded.
+ * <p>
  * Does not support {@link java.io.InputStream#mark} or
  * {@link java.io.InputStream#reset}.
  *
@@ -34,10 +37,45 @@ import org.slf4j.LoggerFactory;
  */
 class Base64DecodeInputStream extends InputStream {
 
-    LinkedList<Integer> decodeBuffer = new LinkedList<Integer>();
-    LinkedList<Byte> buffer = new LinkedList<Byte>();
-    byte[] readBuffer = new byte[8192];
-    InputStream input;
+    static final int INVALID = -1;
+    static final int EQUAL = -2;
+
+    /* the equal sign taken at face value, as the old decoder did */
+    static final int EQUAL_BITS = '=' & 63;
+
+    /* Maps each byte to its 6-bit value, INVALID, or EQUAL. */
+    static final int[] DECODE = new int[256];
+
+    static {
+
+        String alphabet =
+            "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/";
+
+        Arrays.fill(DECODE, INVALID);
+
+        for ( int index = 0; index < alphabet.length(); index++ ) {
+            DECODE[alphabet.charAt(index)] = index;
+        }
+
+        DECODE['='] = EQUAL;
+    }
+
+    private byte[] readBuffer = new byte[8192];
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private InputStream input;
+
+    /* bits of the current, incomplete quantum */
+    private int quantum = 0;
+    private int quantumCount = 0;
+    private int equalCount = 0;
+
+    /* decoded bytes that did not fit the caller's array */
+    private byte[] pending = new byte[3];
+    private int pendingPosition = 0;
+    private int pendingLength = 0;
+
+    private byte[] single = new byte[1];
 
     /**
      * We turn this on if we encounter the equal sign.
@@ -46,8 +84,6 @@ class Base64DecodeInputStream extends InputStream {
      */
     boolean stopDecode = false;
 
-    private static int EQUAL = 61;
-
     private static final Logger log =
         LoggerFactory.getLogger(Base64DecodeInputStream.class.getName());
  
@@ -56,288 +92,276 @@ class Base64DecodeInputStream extends InputStream {
     }
  
     /**
-     * Returns an approximation of available bytes left in this stream.
+     * Decodes the given range of the array in place, the same way this
+     * stream would, and returns the number of bytes decoded.
      */
-    public int available() throws IOException {
-        return (int)(input.available() * 3 / 4);
-    }
+    static int decodeInPlace(byte[] data, int offset, int length) {
 
-    /**
-     * Closes this decode stream.
-     */
-    public void close() throws IOException {
-        StreamUtility.close(this, input);
-    }
-
-    private int readMore() throws IOException {
-
-        int bytesRead = input.read(readBuffer);
+        int end = offset + length;
+        int at = offset;
+        int bits = 0;
+        int count = 0;
+        int equals = 0;
 
-        if ( bytesRead == -1 ) {
-            stopDecode = true;
-            return -1;
-        }
+        for ( int position = offset; position < end; position++ ) {
 
-        for ( int index = 0; index < bytesRead; index++ ) {
+            int value = DECODE[data[position] & 0xff];
 
-            if ( isValidBase64(readBuffer[index]) ) {
-                buffer.add(readBuffer[index]);
+            if ( value == INVALID ) {
+                continue;
             }
 
-        }
-
-        return bytesRead;
-
-    }
-
-    private boolean isValidBase64(byte value ) {
-        if ( ( value >= 65 ) && ( value <=90 ) ) {
-            return true;
-        }
-
-        if ( ( value >= 97 ) && ( value <= 122 ) ) {
-            return true;
-        }
-
-        if ( ( value >= 48 ) && ( value <= 57 ) ) {
-            return true;
-        }
-        if ( value == 43 ) {
-            return true;
-        }
-
-        if ( value == 47 ) {
-            return true;
-        }
+            if ( value == EQUAL ) {
 
-        if ( value == EQUAL ) {
-            return true;
-        }
+                value = EQUAL_BITS;
 
-        return false;
-    }
-
-    private void convertToBase64IndexValues(byte[] data) {
-        for ( int index = 0; index < data.length; index++ ) {
-            byte value = data[index];
-
-            if ( ( value >= 65 ) && ( value <=90 ) ) {
-                data[index] -=65;
-                continue;
+                if ( count >= 2 ) {
+                    equals++;
+                }
             }
 
-            if ( ( value >= 97 ) && ( value <= 122 ) ) {
-                data[index] -= 71;
-                continue;
-            }
+            bits = ( bits << 6 ) | value;
 
-            if ( ( value >= 48 ) && ( value <= 57 ) ) {
-                data[index] += 4;
-                continue;
-            }
-            if ( value == 43 ) {
-                data[index] = 62;
+            if ( ++count < 4 ) {
                 continue;
             }
 
-            if ( value == 47 ) {
-                data[index] = 63;
-                continue;
+            at = put(data, at, bits, 3 - equals);
+
+            if ( equals > 0 ) {
+                return at - offset;
             }
 
+            bits = 0;
+            count = 0;
         }
-    }
 
-    private void bytesToBitset(byte[] data, BitSet bits) {
-        for ( int index = 0; index < data.length; index++ ) {
+        if ( count > 0 ) {
 
-            byte currentByte = data[index];
+            while ( count < 4 ) {
 
-            if ( ( currentByte & 32 ) == 32 ) {
-                bits.set((index*6)+0);
-            }
+                bits = ( bits << 6 ) | EQUAL_BITS;
 
-            if ( ( currentByte & 16 ) == 16 ) {
-                bits.set((index*6)+1);
-            }
+                if ( count >= 2 ) {
+                    equals++;
+                }
 
-            if ( ( currentByte & 8 ) == 8 ) {
-                bits.set((index*6)+2);
+                count++;
             }
 
-            if ( ( currentByte & 4 ) == 4 ) {
-                bits.set((index*6)+3);
-            }
+            at = put(data, at, bits, 3 - equals);
+        }
 
-            if ( ( currentByte & 2 ) == 2 ) {
-                bits.set((index*6)+4);
-            }
+        return at - offset;
+    }
 
-            if ( ( currentByte & 1 ) == 1 ) {
-                bits.set((index*6)+5);
-            }
+    private static int put(byte[] data, int at, int bits, int length) {
 
+        for ( int index = 0; index < length; index++ ) {
+            data[at++] = (byte)(bits >> ( 16 - index * 8 ));
         }
 
+        return at;
     }
 
-    private void bitsetToBytes(BitSet bits, byte[] decodedData) {
-        for ( int index = 0; index < decodedData.length; index++ ) {
+    /**
+     * Returns an approximation of available bytes left in this stream.
+     */
+    public int available() throws IOException {
+        return ( pendingLength - pendingPosition ) +
+            (int)( ( (long)input.available() + readLimit - readPosition )
+            * 3 / 4 );
+    }
 
-            if ( bits.get( (index*8)+0 ) ) {
-                decodedData[index] += 128;
-            }
-            if ( bits.get( (index*8)+1 ) ) {
-                decodedData[index] += 64;
-            }
-            if ( bits.get( (index*8)+2 ) ) {
-                decodedData[index] += 32;
-            }
-            if ( bits.get( (index*8)+3 ) ) {
-                decodedData[index] += 16;
-            }
-            if ( bits.get( (index*8)+4 ) ) {
-                decodedData[index] += 8;
-            }
-            if ( bits.get( (index*8)+5 ) ) {
-                decodedData[index] += 4;
-            }
-            if ( bits.get( (index*8)+6 ) ) {
-                decodedData[index] += 2;
-            }
-            if ( bits.get( (index*8)+7 ) ) {
-                decodedData[index] += 1;
-            }
+    /**
+     * Closes this decode stream.
+     */
+    public void close() throws IOException {
+        StreamUtility.close(this, input);
+    }
 
+    private boolean readMore() throws IOException {
+
+        /* Must be read(byte[]). Some part streams only honor their end
+         * position there.
+         */
+        int bytesRead = input.read(readBuffer);
 
+        if ( bytesRead <= 0 ) {
+            return false;
         }
 
-    }
+        readPosition = 0;
+        readLimit = bytesRead;
 
-    private int pullBytesForConversion(byte[] data) {
-        int equalSignBytes = 0;
+        return true;
+    }
 
-        data[0] = buffer.poll();
-        data[1] = buffer.poll();
-        data[2] = buffer.poll();
-        data[3] = buffer.poll();
+    /**
+     * Moves a complete quantum to pending. Each equal sign in the last two
+     * positions takes one byte off the end, and ends the decoding.
+     */
+    private void complete(int bits, int equals) {
 
-        if ( EQUAL == (int)(data[2]) ) {
-            equalSignBytes++;
-        }
+        pending[0] = (byte)(bits >> 16);
+        pending[1] = (byte)(bits >> 8);
+        pending[2] = (byte)bits;
+        pendingPosition = 0;
+        pendingLength = 3 - equals;
 
-        if ( EQUAL == (int)(data[3]) ) {
-            equalSignBytes++;
+        if ( equals > 0 ) {
+            stopDecode = true;
         }
-
-        return equalSignBytes;
     }
 
-    private void fillBuffer() throws IOException {
-        int bytesRead = readMore();
+    /**
+     * Pads whatever is left of the last quantum with equal signs, then stops.
+     * <p>
+     * Test case 35 has a base64 encoded string with 23 chars.
+     * This is not a multiple of 4.
+     * mutt and an online decode is able to decode this,
+     * probably by append = where needed.
+     */
+    private void finish() {
 
-        if ( bytesRead < 4 ) {
+        if ( quantumCount > 0 ) {
 
-            if ( buffer.size() == 0 ) {
-                /* There is nothing here at all. */
-                return;
-            }  else {
+            while ( quantumCount < 4 ) {
 
-                /* Test case 35 has a base64 encoded string with 23 chars.
-                 * This is not a multiple of 4.
-                 * mutt and an online decode is able to decode this,
-                 * probably by append = where needed.
-                 */
+                quantum = ( quantum << 6 ) | EQUAL_BITS;
 
-                for ( int index = buffer.size(); index < 4; index++ ) {
-                    buffer.addLast((byte)EQUAL);
+                if ( quantumCount >= 2 ) {
+                    equalCount++;
                 }
+
+                quantumCount++;
             }
 
+            complete(quantum, equalCount);
         }
+
+        quantum = 0;
+        quantumCount = 0;
+        equalCount = 0;
+        stopDecode = true;
     }
 
-    private void decode() throws IOException {
+    /**
+     * Decodes buffered input straight into the given array. Stops when the
+     * buffered input runs out, when the array has no room for another
+     * full quantum, or at the quantum with the equal sign. The last two
+     * go to pending.
+     */
+    private int decode(byte[] b, int off, int len) {
 
-        BitSet bits = new BitSet();
-        byte[] decodedData = new byte[3];
-        byte[] data = new byte[4];
-        Byte b;
+        byte[] in = readBuffer;
+        int position = readPosition;
+        int limit = readLimit;
+        int bits = quantum;
+        int count = quantumCount;
+        int equals = equalCount;
+        int written = 0;
 
-        int equalSignBytes = 0;
+        while ( position < limit ) {
 
-        /* first make sure we have enough data in the buffer */
-        if ( buffer.size() < 4 ) {
-            fillBuffer();
-        }
+            if ( count == 0 ) {
 
-        b = buffer.peek();
+                /* Fast path: four valid characters in a row. Any INVALID
+                 * or EQUAL makes the combined value negative.
+                 */
+                while ( ( position + 4 <= limit ) &&
+                    ( written + 3 <= len ) ) {
 
-        if ( b == null ) {
-            /* no data. we're done */
-            return;
-        }
+                    int value = ( DECODE[in[position] & 0xff] << 18 ) |
+                        ( DECODE[in[position+1] & 0xff] << 12 ) |
+                        ( DECODE[in[position+2] & 0xff] << 6 ) |
+                        DECODE[in[position+3] & 0xff];
 
-        /* pull 4 bytes from the buffer into our 4-member local array */
-        equalSignBytes = pullBytesForConversion(data);
+                    if ( value < 0 ) {
+                        break;
+                    }
 
-        convertToBase64IndexValues(data);
+                    b[off+written] = (byte)(value >> 16);
+                    b[off+written+1] = (byte)(value >> 8);
+                    b[off+written+2] = (byte)value;
 
-        /* convert local 4-member array into bitset */
-        bytesToBitset(data, bits);
+                    written += 3;
+                    position += 4;
+                }
 
-        /* convert bit set to local 3-member array */
-        bitsetToBytes(bits, decodedData);
+                if ( position >= limit ) {
+                    break;
+                }
+            }
 
-        /* add decoded data to decode buffer */
-        for ( int index = 0; index < (decodedData.length-equalSignBytes);
-            index++ ) {
-            int number = decodedData[index] & 0xff;
-            decodeBuffer.add(number);
-        }
+            int value = DECODE[in[position++] & 0xff];
 
-        /**
-         * We turn this on if we encounter the equal sign.
-         * RFC 2045 states we may consider any equal sign as the
-         * end of content.
-         */
-        if ( equalSignBytes > 0 ) {
-            stopDecode = true;
-        }
-    }
+            if ( value == INVALID ) {
+                continue;
+            }
 
+            if ( value == EQUAL ) {
 
-    /**
-     * Reads a decoded byte.
-     */
-    public int read() throws IOException {
+                /* Only an equal sign in the last two positions is padding.
+                 * Earlier ones go in at face value.
+                 */
+                value = EQUAL_BITS;
 
-        Integer b = decodeBuffer.peek();
+                if ( count >= 2 ) {
+                    equals++;
+                }
+            }
 
-        if ( b == null ) {
+            bits = ( bits << 6 ) | value;
+
+            if ( ++count < 4 ) {
+                continue;
+            }
+
+            if ( ( equals == 0 ) && ( written + 3 <= len ) ) {
+
+                b[off+written] = (byte)(bits >> 16);
+                b[off+written+1] = (byte)(bits >> 8);
+                b[off+written+2] = (byte)bits;
+
+                written += 3;
+                bits = 0;
+                count = 0;
+
+                continue;
+            }
 
             /**
-             * If the underlying stream has returned -1, then stopDecode
-             * will be on.
-             *
-             * This is on if we encounter the equal sign.
              * RFC 2045 states we may consider any equal sign as the
              * end of content.
              */
-            if ( stopDecode ) {
-                return -1;
-            }
-            decode();
+            complete(bits, equals);
+
+            bits = 0;
+            count = 0;
+            equals = 0;
+
+            break;
         }
 
-        b = decodeBuffer.poll();
+        readPosition = position;
+        quantum = bits;
+        quantumCount = count;
+        equalCount = equals;
+
+        return written;
+    }
+
+    /**
+     * Reads a decoded byte.
+     */
+    public int read() throws IOException {
 
-        if ( b == null ) {
+        if ( read(single, 0, 1) <= 0 ) {
             return -1;
-        } else {
-            return b;
         }
 
+        return single[0] & 0xff;
     }
 
     /**
@@ -358,20 +382,42 @@ class Base64DecodeInputStream extends InputStream {
 
         int bytesRead = 0;
 
-        for ( int index = 0; index < len; index++ ) {
-            int read = read();
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        while ( bytesRead < len ) {
+
+            if ( pendingPosition < pendingLength ) {
+
+                int count = Math.min(len - bytesRead,
+                    pendingLength - pendingPosition);
+
+                System.arraycopy(pending, pendingPosition, b,
+                    off + bytesRead, count);
+
+                pendingPosition += count;
+                bytesRead += count;
 
-            if ( read == -1 ) {
+                continue;
+            }
+
+            if ( stopDecode ) {
                 break;
             }
 
-            b[off+index] = (byte)read;
-            bytesRead++;
+            if ( ( readPosition >= readLimit ) && ( ! readMore() ) ) {
+                finish();
+                continue;
+            }
+
+            bytesRead += decode(b, off + bytesRead, len - bytesRead);
         }
 
         if ( ( bytesRead == 0 ) && stopDecode ) {
             return -1;
         }
+
         return bytesRead;
     }
 
@@ -381,14 +427,25 @@ class Base64DecodeInputStream extends InputStream {
      */
     public long skip(long n) throws IOException {
 
-        int skipped = 0;
+        byte[] scratch;
+        long skipped = 0;
+
+        if ( n <= 0 ) {
+            return 0;
+        }
+
+        scratch = new byte[(int)Math.min(n, 8192)];
+
+        while ( skipped < n ) {
+
+            int bytesRead = read(scratch, 0,
+                (int)Math.min(n - skipped, scratch.length));
 
-        for ( int index = 0; index < n; index++ ) {
-            if ( read() == -1 ) {
+            if ( bytesRead <= 0 ) {
                 break;
-            } else {
-                skipped++;
             }
+
+            skipped += bytesRead;
         }
 
         return skipped;
@@ -396,4 +453,3 @@ class Base64DecodeInputStream extends InputStream {
     }
 
 }
-
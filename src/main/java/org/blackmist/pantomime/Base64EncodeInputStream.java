@@ -17,9 +17,6 @@ package org.blackmist.pantomime;
 import java.io.InputStream;
 import java.io.IOException;
 
-import java.util.BitSet;
-import java.util.LinkedList;
-
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -29,6 +26,9 @@ import org.slf4j.LoggerFactory;
  * Pantomime will use Base64 for any content or header that has characters
  * with code points of 976 or higher.
  * <p>
+ * Input is encoded 3 bytes at a time straight into the caller's array, in
+ * lines of 76 characters separated by CRLF.
+ * <p>
  * Does not support {@link java.io.InputStream#mark} or
  * {@link java.io.InputStream#reset}.
  *
@@ -38,12 +38,30 @@ import org.slf4j.LoggerFactory;
  */
 class Base64EncodeInputStream extends InputStream {
 
-    private LinkedList<Integer> encodeBuffer = new LinkedList<Integer>();
-    private LinkedList<Byte> buffer = new LinkedList<Byte>();
-    private byte[] readBuffer = new byte[8192];
+    private static final byte[] ENCODE =
+        "ABCDEFGHIJKLMNOPQRSTUVWXYZabcdefghijklmnopqrstuvwxyz0123456789+/"
+        .getBytes();
+
+    private static final int LINE_LENGTH = 76;
+
+    private byte[] inputBuffer = new byte[8192];
+
+    /* room for up to 2 bytes left over from the last read */
+    private byte[] readBuffer = new byte[inputBuffer.length + 2];
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean endOfInput = false;
+
     private InputStream input;
     private boolean stopEncode = false;
 
+    /* encoded bytes that did not fit the caller's array */
+    private byte[] pending = new byte[6];
+    private int pendingPosition = 0;
+    private int pendingLength = 0;
+
+    private byte[] single = new byte[1];
+
     private int charCountInLine = 0;
 
     private static final Logger log =
@@ -54,145 +72,132 @@ class Base64EncodeInputStream extends InputStream {
     }
  
     /**
-     * Returns an approximation of available bytes left in this stream.
+     * Returns the exact size of the encoding of the given number of bytes.
      */
-    public int available() throws IOException {
-        return (int)(input.available() * 4 / 3);
+    static long encodedLength(long length) {
+
+        /* characters other than the = padding */
+        long chars = ( length / 3 ) * 4 + ( ( length % 3 == 0 ) ? 0 :
+            ( length % 3 ) + 1 );
+
+        if ( length == 0 ) {
+            return 0;
+        }
+
+        /* the padding stays on the last line */
+        return ( ( length + 2 ) / 3 ) * 4 +
+            ( ( chars - 1 ) / LINE_LENGTH ) * 2;
     }
 
     /**
-     * Closes this encode stream.
+     * Appends the encoding of the given bytes to the builder, the same way
+     * this stream would encode them.
      */
-    public void close() throws IOException {
-        StreamUtility.close(this, input);
-    }
-
-    private int readMore() throws IOException {
+    static void appendEncoded(byte[] data, int offset, int length,
+        StringBuilder builder) {
 
-        int bytesRead = input.read(readBuffer);
+        int end = offset + length;
+        int count = 0;
 
-        for ( int index = 0; index < bytesRead; index++ ) {
+        for ( int position = offset; position < end; position += 3 ) {
 
-            buffer.add(readBuffer[index]);
+            int size = Math.min(3, end - position);
+            int bits = ( data[position] & 0xff ) << 16;
 
-        }
+            if ( size > 1 ) {
+                bits |= ( data[position+1] & 0xff ) << 8;
+            }
 
-        return bytesRead;
+            if ( size > 2 ) {
+                bits |= data[position+2] & 0xff;
+            }
 
-    }
+            if ( count >= LINE_LENGTH ) {
+                builder.append("\r\n");
+                count = 0;
+            }
 
-    private void pullBytesForConversion(byte[] data, int size) {
-        for ( int index = 0; index < 3; index++ ) {
+            for ( int index = 0; index < 4; index++ ) {
 
-            if ( index < size ) {
-                data[index] = buffer.poll();
-            } else {
-                data[index] = 0;
+                if ( index <= size ) {
+                    builder.append((char)ENCODE[(bits >>> (18 - index*6)) & 63]);
+                    count++;
+                } else {
+                    builder.append('=');
+                }
             }
         }
     }
 
-    private void encode() throws IOException {
+    /**
+     * Returns an approximation of available bytes left in this stream.
+     */
+    public int available() throws IOException {
+        return ( pendingLength - pendingPosition ) +
+            (int)( ( (long)input.available() + readLimit - readPosition )
+            * 4 / 3 );
+    }
 
-        BitSet bits = new BitSet();
-        byte[] encodedData = new byte[4];
-        byte[] data = new byte[3];
-        Byte b;
-        int size = 3;
+    /**
+     * Closes this encode stream.
+     */
+    public void close() throws IOException {
+        StreamUtility.close(this, input);
+    }
 
-        /* first make sure we have enough data in the buffer */
-        if ( buffer.size() < 3 ) {
+    /**
+     * Moves whatever is left in the read buffer to the front, and appends
+     * the next read from the input.
+     */
+    private void readMore() throws IOException {
 
-            readMore();
+        int remainder = readLimit - readPosition;
+        int bytesRead;
 
-            if ( buffer.size() == 0 ) {
-                /* There is nothing here at all. */
-                stopEncode = true;
-                return;
-            }
+        System.arraycopy(readBuffer, readPosition, readBuffer, 0, remainder);
 
-            if ( buffer.size() < 3 ) {
-                size = buffer.size();
-            }
-        }
+        readPosition = 0;
+        readLimit = remainder;
 
-        b = buffer.peek();
+        /* Must be read(byte[]). Some part streams only honor their end
+         * position there.
+         */
+        bytesRead = input.read(inputBuffer);
 
-        if ( b == null ) {
-            /* no data. we're done */
-            stopEncode = true;
+        if ( bytesRead <= 0 ) {
+            endOfInput = true;
             return;
         }
 
-        /* pull 3 bytes from the buffer into our 3-member local array */
-        pullBytesForConversion(data, size);
-
-        /* convert local 3-member array into bitset */
-        bytesToBitSet(data, bits, size);
-
-        /* convert bit set to local 4-member array */
-        bitSetToBytes(bits, encodedData, size);
-
-        for ( int index = 0; index < (size+1); index++ ) {
-
-            if ( charCountInLine >= 76 ) {
-                charCountInLine = 0;
-                encodeBuffer.add(13);
-                encodeBuffer.add(10);
-            }
-            encodeBuffer.add(convertIntToBase64(encodedData[index]));
-            charCountInLine++;
-        }
-
-        for ( int index = 0; index < ( 3 - size ); index++ ) {
-            stopEncode = true;
-            encodeBuffer.add(61);
-        }
+        System.arraycopy(inputBuffer, 0, readBuffer, remainder, bytesRead);
 
+        readLimit += bytesRead;
     }
 
-    private void bytesToBitSet(byte[] data, BitSet bits, int size) {
-        for ( int index = 0; index < size; index++ ) {
-
-            byte currentByte = data[index];
-
-            if ( ( currentByte & 128 ) == 128  ) {
-                bits.set((index*8)+0);
-            }
-
-            if ( ( currentByte & 64 ) == 64  ) {
-                bits.set((index*8)+1);
-            }
-
-            if ( ( currentByte & 32 ) == 32 ) {
-                bits.set((index*8)+2);
-            }
-
-            if ( ( currentByte & 16 ) == 16 ) {
-                bits.set((index*8)+3);
-            }
+    /**
+     * Encodes up to 3 bytes from the read buffer into the given array,
+     * breaking the line first if need be. Fewer than 3 bytes are padded
+     * with equal signs. Returns the position after the last byte written.
+     */
+    private int encodeQuantum(byte[] b, int position, int size) {
 
-            if ( ( currentByte & 8 ) == 8  ) {
-                bits.set((index*8)+4);
-            }
+        int bits = 0;
 
-            if ( ( currentByte & 4 ) == 4  ) {
-                bits.set((index*8)+5);
-            }
+        for ( int index = 0; index < 3; index++ ) {
 
-            if ( ( currentByte & 2 ) == 2  ) {
-                bits.set((index*8)+6);
-            }
+            bits <<= 8;
 
-            if ( ( currentByte & 1 ) == 1  ) {
-                bits.set((index*8)+7);
+            if ( index < size ) {
+                bits |= readBuffer[readPosition++] & 0xff;
             }
-
         }
 
-    }
+        if ( charCountInLine >= LINE_LENGTH ) {
+            charCountInLine = 0;
+            b[position++] = 13;
+            b[position++] = 10;
+        }
 
-    private void bitSetToBytes(BitSet bits, byte[] encodedData, int size) {
         /*
          * The size of the encoded data is 1 + the size of the plain data.
          *
@@ -202,58 +207,75 @@ class Base64EncodeInputStream extends InputStream {
          *
          * By the same token the number of = is (3 - plain size)
          */
-        for ( int index = 0; index < (size+1); index++ ) {
+        for ( int index = 0; index < 4; index++ ) {
 
-            if ( bits.get((index*6)+0) ) {
-                encodedData[index] += 32;
+            if ( index <= size ) {
+                b[position++] = ENCODE[(bits >>> (18 - index*6)) & 63];
+                charCountInLine++;
+            } else {
+                b[position++] = 61;
             }
+        }
 
-            if ( bits.get((index*6)+1) ) {
-                encodedData[index] += 16;
-            }
+        return position;
+    }
 
-            if ( bits.get((index*6)+2) ) {
-                encodedData[index] += 8;
-            }
+    /**
+     * Encodes whole quanta from the read buffer straight into the given
+     * array, a line at a time, for as long as both input and room last.
+     * Returns the number of bytes written.
+     */
+    private int encode(byte[] b, int off, int len) {
 
-            if ( bits.get((index*6)+3) ) {
-                encodedData[index] += 4;
-            }
+        byte[] in = readBuffer;
+        int position = readPosition;
+        int limit = readLimit;
+        int written = 0;
 
-            if ( bits.get((index*6)+4) ) {
-                encodedData[index] += 2;
-            }
+        while ( limit - position >= 3 ) {
+
+            int quanta;
 
-            if ( bits.get((index*6)+5) ) {
-                encodedData[index] += 1;
+            if ( charCountInLine >= LINE_LENGTH ) {
+
+                if ( written + 6 > len ) {
+                    break;
+                }
+
+                b[off+written++] = 13;
+                b[off+written++] = 10;
+                charCountInLine = 0;
             }
 
-        }
+            quanta = Math.min((limit - position) / 3,
+                Math.min((LINE_LENGTH - charCountInLine) / 4,
+                (len - written) / 4));
 
-    }
+            if ( quanta == 0 ) {
+                break;
+            }
 
-    private int convertIntToBase64(byte value) {
+            charCountInLine += quanta * 4;
 
-        /* A - Z */
-        if ( value < 26 ) {
-            return value + 65;
-        }
+            for ( int index = 0; index < quanta; index++ ) {
 
-        /* a - z */
-        if ( value < 52 ) {
-            return value - 26 + 97;
-        }
+                int bits = ( ( in[position] & 0xff ) << 16 ) |
+                    ( ( in[position+1] & 0xff ) << 8 ) |
+                    ( in[position+2] & 0xff );
 
-        /* 0 - 9 */
-        if ( value < 62 ) {
-            return value - 52 + 48;
-        }
+                b[off+written] = ENCODE[bits >>> 18];
+                b[off+written+1] = ENCODE[(bits >>> 12) & 63];
+                b[off+written+2] = ENCODE[(bits >>> 6) & 63];
+                b[off+written+3] = ENCODE[bits & 63];
 
-        if ( value < 63 ) {
-            return 43;
+                written += 4;
+                position += 3;
+            }
         }
 
-        return 47;
+        readPosition = position;
+
+        return written;
     }
 
     /**
@@ -261,29 +283,11 @@ class Base64EncodeInputStream extends InputStream {
      */
     public int read() throws IOException {
 
-        Integer b = encodeBuffer.peek();
-
-        if ( b == null ) {
-
-            /**
-             * This is on if we encounter the equal sign.
-             * RFC 2045 states we may consider any equal sign as the
-             * end of content.
-             */
-            if ( stopEncode ) {
-                return -1;
-            }
-            encode();
-        }
-
-        b = encodeBuffer.poll();
-
-        if ( b == null ) {
+        if ( read(single, 0, 1) <= 0 ) {
             return -1;
-        } else {
-            return b;
         }
 
+        return single[0] & 0xff;
     }
 
     /**
@@ -304,15 +308,62 @@ class Base64EncodeInputStream extends InputStream {
 
         int bytesRead = 0;
 
-        for ( int index = 0; index < len; index++ ) {
-            int read = read();
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        while ( bytesRead < len ) {
+
+            int available = readLimit - readPosition;
+
+            if ( pendingPosition < pendingLength ) {
+
+                int count = Math.min(len - bytesRead,
+                    pendingLength - pendingPosition);
+
+                System.arraycopy(pending, pendingPosition, b,
+                    off + bytesRead, count);
+
+                pendingPosition += count;
+                bytesRead += count;
 
-            if ( read == -1 ) {
+                continue;
+            }
+
+            if ( stopEncode ) {
                 break;
             }
 
-            b[off+index] = (byte)read;
-            bytesRead++;
+            if ( ( available < 3 ) && ( ! endOfInput ) ) {
+                readMore();
+                continue;
+            }
+
+            if ( available >= 3 ) {
+
+                int encoded = encode(b, off + bytesRead, len - bytesRead);
+
+                if ( encoded == 0 ) {
+                    /* no room left for a whole quantum */
+                    pendingPosition = 0;
+                    pendingLength = encodeQuantum(pending, 0, 3);
+                }
+
+                bytesRead += encoded;
+
+                continue;
+            }
+
+            if ( available > 0 ) {
+                pendingPosition = 0;
+                pendingLength = encodeQuantum(pending, 0, available);
+            }
+
+            stopEncode = true;
+        }
+
+        if ( ( bytesRead == 0 ) && stopEncode ) {
+            return -1;
         }
 
         return bytesRead;
@@ -324,14 +375,25 @@ class Base64EncodeInputStream extends InputStream {
      */
     public long skip(long n) throws IOException {
 
-        int skipped = 0;
+        byte[] scratch;
+        long skipped = 0;
 
-        for ( int index = 0; index < n; index++ ) {
-            if ( read() == -1 ) {
+        if ( n <= 0 ) {
+            return 0;
+        }
+
+        scratch = new byte[(int)Math.min(n, 8192)];
+
+        while ( skipped < n ) {
+
+            int bytesRead = read(scratch, 0,
+                (int)Math.min(n - skipped, scratch.length));
+
+            if ( bytesRead <= 0 ) {
                 break;
-            } else {
-                skipped++;
             }
+
+            skipped += bytesRead;
         }
 
         return skipped;
@@ -339,4 +401,3 @@ class Base64EncodeInputStream extends InputStream {
     }
 
 }
-
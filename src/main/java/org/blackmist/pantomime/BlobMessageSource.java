@@ -116,16 +116,61 @@ public class BlobMessageSource extends StreamMessageSource {
         }
     }
 
+    int read(long position, byte[] data, int offset, int length)
+        throws PantomimeException {
+
+        try {
+
+            byte[] transfer;
+            long max = getLength() - position;
+
+            if ( max <= 0 ) {
+                return -1;
+            }
+
+            if ( length > max ) {
+                length = (int)max;
+            }
+
+            /* blobs are index from 1, not 0 */
+            transfer = blob.getBytes(position + 1, length);
+
+            System.arraycopy(transfer, 0, data, offset, transfer.length);
+
+            return transfer.length;
+
+        } catch (SQLException e) {
+            throw new PantomimeException(e);
+        }
+    }
+
+    /**
+     * Returns the whole message as a
+     * {@link jakarta.mail.internet.SharedInputStream}.
+     * <p>
+     * Hand it to
+     * {@link jakarta.mail.internet.MimeMessage#MimeMessage(jakarta.mail.Session, InputStream)}
+     * and JavaMail will parse the message lazily over this blob instead of
+     * copying it into memory. The stream is only good until this source
+     * is freed.
+     */
+    public InputStream getSharedInputStream() throws PantomimeException {
+        return new MessageSourceSharedInputStream(this, 0, getLength());
+    }
+
     /**
      * (Internal Use.) Returns the body of the MIME part for the given MimPath.
      */
     public InputStream getBody(MimePath path) throws PantomimeException {
-        long bodyStart = getBodyStart(path);
-        long bodyEnd = getBodyEnd(path);
+        return getRange(getBodyStart(path), getBodyEnd(path));
+    }
 
-        InputStream stream =
-            new BlobMimePartInputStream(blob, bodyStart, bodyEnd);
+    boolean isRandomAccess() {
+        return true;
+    }
 
+    InputStream getRange(long start, long end) throws PantomimeException {
+        InputStream stream = new BlobMimePartInputStream(blob, start, end);
         StreamMonitor.opened(this, stream);
         return stream;
     }
@@ -162,8 +207,15 @@ public class BlobMessageSource extends StreamMessageSource {
 
             buffer = new byte[16384];
 
-            while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
-                fos.write(buffer, 0, bytesRead);
+            if ( stream instanceof PartInputStream ) {
+
+                ((PartInputStream)stream).writeTo(fos);
+
+            } else {
+
+                while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
+                    fos.write(buffer, 0, bytesRead);
+                }
             }
 
             fis = new FileInputStream(temp);
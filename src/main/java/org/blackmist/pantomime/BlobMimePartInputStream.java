@@ -59,7 +59,7 @@ class BlobMimePartInputStream extends InputStream {
         int bytesRead = read(b);
 
         if ( bytesRead > 0 ) {
-            return b[0];
+            return b[0] & 0xff;
         } else {
             return -1;
         }
@@ -104,7 +104,7 @@ class BlobMimePartInputStream extends InputStream {
         int read;
         byte[] transfer;
 
-        if ( position > end ) {
+        if ( position >= end ) {
             return -1;
         }
 
@@ -116,7 +116,7 @@ class BlobMimePartInputStream extends InputStream {
 
             transfer = blob.getBytes(position, maxRead);
 
-            System.arraycopy(transfer, 0, b, 0, maxRead);
+            System.arraycopy(transfer, 0, b, off, maxRead);
 
             position += maxRead;
 
@@ -0,0 +1,183 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Byte searches that look at 8 bytes at a time.
+ * <p>
+ * Each search reads the array a long at a time, little-endian, so that the
+ * lowest flagged byte in a word is the first one in the array. A byte is
+ * flagged by setting its high bit. The flags are exact for the lowest
+ * match in a word, which is the only one used. Whatever is left over at the
+ * end of the range is searched a byte at a time.
+ * <p>
+ * Every search returns the index of the first match, or the end of the
+ * range if there is none.
+ */
+final class ByteKernels {
+
+    private static final long ONES = 0x0101010101010101L;
+    private static final long HIGH = 0x8080808080808080L;
+
+    private static final long CARRIAGE_RETURNS = ONES * 13;
+    private static final long LINE_FEEDS = ONES * 10;
+    private static final long EQUALS = ONES * 61;
+    private static final long DELETES = ONES * 127;
+    private static final long SPACES = ONES * 32;
+
+    private ByteKernels() {
+    }
+
+    private static ByteBuffer words(byte[] data) {
+        return ByteBuffer.wrap(data).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    /* flags the zero bytes of the given word */
+    private static long zeros(long word) {
+        return ( word - ONES ) & ~word & HIGH;
+    }
+
+    /* flags the bytes of the given word below the given low bytes, which
+     * must all be under 128. Bytes of 128 and up are not flagged. */
+    private static long below(long word, long bytes) {
+        return ( word - bytes ) & ~word & HIGH;
+    }
+
+    private static int first(int index, long flags) {
+        return index + ( Long.numberOfTrailingZeros(flags) >>> 3 );
+    }
+
+    /**
+     * Returns the index of the first byte of 128 or above.
+     */
+    static int indexOfNonAscii(byte[] data, int from, int to) {
+
+        ByteBuffer words = words(data);
+        int index = from;
+
+        for ( ; index + 8 <= to; index += 8 ) {
+
+            long flags = words.getLong(index) & HIGH;
+
+            if ( flags != 0 ) {
+                return first(index, flags);
+            }
+        }
+
+        for ( ; index < to; index++ ) {
+
+            if ( data[index] < 0 ) {
+                return index;
+            }
+        }
+
+        return to;
+    }
+
+    /**
+     * Returns the index of the first carriage return or line feed.
+     */
+    static int indexOfLineEnding(byte[] data, int from, int to) {
+
+        ByteBuffer words = words(data);
+        int index = from;
+
+        for ( ; index + 8 <= to; index += 8 ) {
+
+            long word = words.getLong(index);
+            long flags = zeros(word ^ CARRIAGE_RETURNS) |
+                zeros(word ^ LINE_FEEDS);
+
+            if ( flags != 0 ) {
+                return first(index, flags);
+            }
+        }
+
+        for ( ; index < to; index++ ) {
+
+            if ( ( data[index] == 13 ) || ( data[index] == 10 ) ) {
+                return index;
+            }
+        }
+
+        return to;
+    }
+
+    /**
+     * Returns the index of the first carriage return, line feed or NUL.
+     */
+    static int indexOfLineEndingOrNul(byte[] data, int from, int to) {
+
+        ByteBuffer words = words(data);
+        int index = from;
+
+        for ( ; index + 8 <= to; index += 8 ) {
+
+            long word = words.getLong(index);
+            long flags = zeros(word) | zeros(word ^ CARRIAGE_RETURNS) |
+                zeros(word ^ LINE_FEEDS);
+
+            if ( flags != 0 ) {
+                return first(index, flags);
+            }
+        }
+
+        for ( ; index < to; index++ ) {
+
+            if ( ( data[index] == 13 ) || ( data[index] == 10 ) ||
+                ( data[index] == 0 ) ) {
+                return index;
+            }
+        }
+
+        return to;
+    }
+
+    /**
+     * Returns the index of the first byte that quoted-printable does not
+     * pass through as it is: the control characters, the equal sign, and
+     * 127 and above. Tab is among them, though it goes through; the
+     * encoder decides.
+     */
+    static int indexOfQuotedPrintableSpecial(byte[] data, int from, int to) {
+
+        ByteBuffer words = words(data);
+        int index = from;
+
+        for ( ; index + 8 <= to; index += 8 ) {
+
+            long word = words.getLong(index);
+            long flags = below(word, SPACES) | ( word & HIGH ) |
+                zeros(word ^ EQUALS) | zeros(word ^ DELETES);
+
+            if ( flags != 0 ) {
+                return first(index, flags);
+            }
+        }
+
+        for ( ; index < to; index++ ) {
+
+            int b = data[index];
+
+            if ( ( b < 32 ) || ( b == 61 ) || ( b == 127 ) ) {
+                return index;
+            }
+        }
+
+        return to;
+    }
+
+}
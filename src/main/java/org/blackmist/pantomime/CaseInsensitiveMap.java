@@ -2,18 +2,32 @@ package org.blackmist.pantomime;
 
 import java.util.LinkedHashMap;
 
+/**
+ * A map keyed by header names without regard to ASCII case. Keys are kept
+ * folded to lower case.
+ *
+ * @see HeaderName
+ */
 class CaseInsensitiveMap<V> extends LinkedHashMap<String,V> {
 
+    private static Object fold(Object key) {
+        return ( key instanceof String ) ? HeaderName.fold((String)key) : key;
+    }
+
     public V put(String key, V value) {
-        return super.put(key.toLowerCase(), value);
+        return super.put(HeaderName.fold(key), value);
+    }
+
+    public V get(Object key) {
+        return super.get(fold(key));
     }
 
-    public V get(String key) {
-        return super.get(key.toLowerCase());
+    public boolean containsKey(Object key) {
+        return super.containsKey(fold(key));
     }
 
-    public boolean containsKey(String key) {
-        return super.containsKey(key.toLowerCase());
+    public V remove(Object key) {
+        return super.remove(fold(key));
     }
 
 }
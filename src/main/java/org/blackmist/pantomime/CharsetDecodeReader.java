@@ -0,0 +1,164 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.Reader;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes a byte stream into characters a buffer at a time.
+ * <p>
+ * One decoder is used for the whole stream, and the bytes of a character
+ * cut off at the end of one read are carried over to the next. Malformed
+ * input becomes the replacement character. An unknown character set, or
+ * none, means the default character set.
+ * <p>
+ * Closing the reader closes the stream.
+ */
+class CharsetDecodeReader extends Reader {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(CharsetDecodeReader.class.getName());
+
+    private InputStream input;
+    private CharsetDecoder decoder;
+
+    private byte[] inputBuffer = new byte[8192];
+
+    /* room for the bytes of a partial character from the last read */
+    private ByteBuffer bytes = ByteBuffer.allocate(inputBuffer.length + 64);
+    private CharBuffer chars = CharBuffer.allocate(inputBuffer.length);
+
+    private boolean underflow = true;
+    private boolean endOfInput = false;
+    private boolean flushed = false;
+
+    CharsetDecodeReader(InputStream input, String charset) {
+
+        this.input = input;
+        this.decoder = forName(charset).newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+        bytes.flip();
+        chars.flip();
+    }
+
+    private static Charset forName(String charset) {
+
+        if ( charset != null ) {
+
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                log.debug("Unknown charset " + charset + ". Using default.");
+            }
+        }
+
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Keeps whatever is left undecoded, and appends the next read.
+     */
+    private void readMore() throws IOException {
+
+        int bytesRead;
+
+        bytes.compact();
+
+        /* Must be read(byte[]). Some part streams only honor their end
+         * position there.
+         */
+        bytesRead = input.read(inputBuffer);
+
+        if ( bytesRead <= 0 ) {
+            endOfInput = true;
+        } else {
+            bytes.put(inputBuffer, 0, bytesRead);
+        }
+
+        bytes.flip();
+    }
+
+    /**
+     * Decodes until there is at least one character, or nothing is left.
+     */
+    private void fill() throws IOException {
+
+        chars.clear();
+
+        while ( ( chars.position() == 0 ) && ( ! flushed ) ) {
+
+            if ( underflow && ( ! endOfInput ) ) {
+                readMore();
+            }
+
+            underflow = decoder.decode(bytes, chars, endOfInput).isUnderflow();
+
+            if ( endOfInput && underflow ) {
+                flushed = decoder.flush(chars).isUnderflow();
+            }
+        }
+
+        chars.flip();
+    }
+
+    public int read(char[] cbuf, int off, int len) throws IOException {
+
+        int count;
+
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        if ( ! chars.hasRemaining() ) {
+
+            if ( flushed ) {
+                return -1;
+            }
+
+            fill();
+
+            if ( ! chars.hasRemaining() ) {
+                return -1;
+            }
+        }
+
+        count = Math.min(len, chars.remaining());
+
+        chars.get(cbuf, off, count);
+
+        return count;
+    }
+
+    public boolean ready() throws IOException {
+        return chars.hasRemaining();
+    }
+
+    public void close() throws IOException {
+        StreamUtility.close(this, input);
+    }
+
+}
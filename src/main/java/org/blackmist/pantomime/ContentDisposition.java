@@ -340,5 +340,12 @@ public class ContentDisposition extends Header {
         return getSubField("modification-date");
     }
 
+    /**
+     * Returns a new Content-Disposition header with no value, for {@link #copy}.
+     */
+    protected Header newInstance() {
+        return new ContentDisposition();
+    }
+
 }
 
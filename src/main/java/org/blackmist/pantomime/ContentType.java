@@ -61,4 +61,11 @@ public class ContentType extends Header {
         return getSubField("charset");
     }
 
+    /**
+     * Returns a new Content-Type header with no value, for {@link #copy}.
+     */
+    protected Header newInstance() {
+        return new ContentType();
+    }
+
 }
@@ -0,0 +1,398 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.time.OffsetDateTime;
+import java.time.ZoneOffset;
+
+/**
+ * Parses RFC 5322 date-times, such as <code>Sun, 18 Oct 2015 01:01:16
+ * -0400</code>, in one pass over the string without making any objects
+ * but the result. Safe for any number of threads.
+ * <p>
+ * Besides the standard form, it takes what RFC 5322 calls obsolete and
+ * what mailers commonly get wrong: no day of the week, or a whole one,
+ * two digit years, no seconds, folding whitespace and comments anywhere,
+ * hyphens between the day, month and year,
+ * zone names such as <code>EST</code> and military zones, a missing zone,
+ * an offset written <code>+04:00</code>, and the asctime order of
+ * <code>Sun Oct 18 01:01:16 2015</code>. Zones that are not numbers are
+ * taken as they are in RFC 5322, so unknown and military zones are UTC.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc5322#section-3.3">RFC 5322 on dates.</a>
+ * @see <a href="http://tools.ietf.org/html/rfc5322#section-4.3">RFC 5322 on obsolete dates.</a>
+ */
+final class DateParser {
+
+    private static final String[] MONTHS = {
+        "january", "february", "march", "april", "may", "june", "july",
+        "august", "september", "october", "november", "december"
+    };
+
+    private static final String[] DAYS = {
+        "monday", "tuesday", "wednesday", "thursday", "friday", "saturday",
+        "sunday"
+    };
+
+    private static final int UNSET = Integer.MIN_VALUE;
+
+    private DateParser() {
+    }
+
+    /**
+     * Returns the given date-time, or null if it is not one.
+     */
+    static OffsetDateTime parse(String value) {
+
+        int day = UNSET;
+        int month = UNSET;
+        int year = UNSET;
+        int hour = UNSET;
+        int minute = 0;
+        int second = 0;
+        int offset = UNSET;
+        int length;
+        int index = 0;
+
+        if ( value == null ) {
+            return null;
+        }
+
+        length = value.length();
+
+        while ( index < length ) {
+
+            char c = value.charAt(index);
+            int start = index;
+
+            if ( c == '(' ) {
+                index = skipComment(value, index);
+                continue;
+            }
+
+            if ( ( c == ' ' ) || ( c == '\t' ) || ( c == '\r' ) ||
+                ( c == '\n' ) || ( c == ',' ) ) {
+                index++;
+                continue;
+            }
+
+            /* 18-Oct-2015 */
+            if ( ( c == '-' ) && ( hour == UNSET ) ) {
+                index++;
+                continue;
+            }
+
+            if ( ( ( c == '+' ) || ( c == '-' ) ) && ( offset == UNSET ) &&
+                ( hour != UNSET ) ) {
+
+                /* +hhmm, or +hh:mm */
+                int sign = ( c == '-' ) ? -1 : 1;
+                int hours;
+                int minutes;
+
+                index = digits(value, start + 1, length);
+
+                if ( ( index - start - 1 ) == 4 ) {
+                    hours = number(value, start + 1, start + 3);
+                    minutes = number(value, start + 3, start + 5);
+                } else if ( ( ( index - start - 1 ) == 2 ) &&
+                    ( index < length ) && ( value.charAt(index) == ':' ) &&
+                    ( digits(value, index + 1, length) == index + 3 ) ) {
+                    hours = number(value, start + 1, start + 3);
+                    minutes = number(value, index + 1, index + 3);
+                    index += 3;
+                } else {
+                    return null;
+                }
+
+                /* ZoneOffset goes no further than 18 hours either way */
+                if ( ( minutes > 59 ) ||
+                    ( hours * 3600 + minutes * 60 > 18 * 3600 ) ) {
+                    return null;
+                }
+
+                offset = sign * ( hours * 3600 + minutes * 60 );
+                continue;
+            }
+
+            if ( isDigit(c) ) {
+
+                index = digits(value, start, length);
+
+                if ( ( index < length ) && ( value.charAt(index) == ':' ) ) {
+
+                    /* hh:mm or hh:mm:ss */
+                    int end;
+
+                    if ( ( hour != UNSET ) || ( index - start > 2 ) ) {
+                        return null;
+                    }
+
+                    hour = number(value, start, index);
+                    end = digits(value, index + 1, length);
+
+                    if ( end - index - 1 != 2 ) {
+                        return null;
+                    }
+
+                    minute = number(value, index + 1, end);
+                    index = end;
+
+                    if ( ( index < length ) && ( value.charAt(index) == ':' ) ) {
+
+                        end = digits(value, index + 1, length);
+
+                        if ( end - index - 1 != 2 ) {
+                            return null;
+                        }
+
+                        second = number(value, index + 1, end);
+                        index = end;
+                    }
+
+                    /* fractions of a second, which some mailers add */
+                    if ( ( index < length ) && ( value.charAt(index) == '.' ) ) {
+                        index = digits(value, index + 1, length);
+                    }
+
+                } else if ( ( day == UNSET ) && ( index - start <= 2 ) &&
+                    ( year == UNSET ) ) {
+                    day = number(value, start, index);
+                } else if ( ( year == UNSET ) && ( index - start <= 4 ) ) {
+                    year = year(number(value, start, index), index - start);
+                } else {
+                    return null;
+                }
+
+                continue;
+            }
+
+            if ( isLetter(c) ) {
+
+                int found;
+
+                for ( index = start + 1; ( index < length ) &&
+                    isLetter(value.charAt(index)); index++ ) {
+                }
+
+                if ( ( month == UNSET ) &&
+                    ( ( found = find(MONTHS, value, start, index) ) != -1 ) ) {
+                    month = found + 1;
+                } else if ( ( hour == UNSET ) &&
+                    ( find(DAYS, value, start, index) != -1 ) ) {
+                    /* the day of the week, which says nothing new */
+                } else if ( ( hour != UNSET ) && ( offset == UNSET ) ) {
+                    offset = zone(value, start, index);
+                } else if ( hour == UNSET ) {
+                    return null;
+                }
+
+                /* anything after the zone, such as "(EDT)" without its
+                 * parentheses, is ignored */
+                continue;
+            }
+
+            return null;
+        }
+
+        if ( ( day == UNSET ) || ( month == UNSET ) || ( year == UNSET ) ||
+            ( hour == UNSET ) ) {
+            return null;
+        }
+
+        /* a leap second is as near as java.time gets to one */
+        if ( second == 60 ) {
+            second = 59;
+        }
+
+        if ( ( day < 1 ) || ( day > lengthOf(month, year) ) || ( hour > 23 ) ||
+            ( minute > 59 ) || ( second > 59 ) ) {
+            return null;
+        }
+
+        return OffsetDateTime.of(year, month, day, hour, minute, second, 0,
+            ZoneOffset.ofTotalSeconds( offset == UNSET ? 0 : offset ));
+    }
+
+    private static boolean isDigit(char c) {
+        return ( c >= '0' ) && ( c <= '9' );
+    }
+
+    private static boolean isLetter(char c) {
+        return ( ( c >= 'a' ) && ( c <= 'z' ) ) || ( ( c >= 'A' ) && ( c <= 'Z' ) );
+    }
+
+    private static char lower(char c) {
+        return ( ( c >= 'A' ) && ( c <= 'Z' ) ) ? (char)( c + 32 ) : c;
+    }
+
+    /**
+     * Returns the end of the run of digits starting at the given index.
+     */
+    private static int digits(String value, int index, int length) {
+
+        while ( ( index < length ) && isDigit(value.charAt(index)) ) {
+            index++;
+        }
+
+        return index;
+    }
+
+    private static int number(String value, int start, int end) {
+
+        int number = 0;
+
+        for ( int index = start; index < end; index++ ) {
+            number = number * 10 + ( value.charAt(index) - '0' );
+        }
+
+        return number;
+    }
+
+    /**
+     * Returns the index after the comment starting at the given index.
+     * Comments nest, and may quote characters with a backslash.
+     */
+    private static int skipComment(String value, int index) {
+
+        int depth = 0;
+
+        for ( ; index < value.length(); index++ ) {
+
+            char c = value.charAt(index);
+
+            if ( c == '\\' ) {
+                index++;
+            } else if ( c == '(' ) {
+                depth++;
+            } else if ( ( c == ')' ) && ( --depth == 0 ) ) {
+                return index + 1;
+            }
+        }
+
+        return index;
+    }
+
+    /**
+     * Returns the year a year of the given number of digits stands for, as
+     * RFC 5322 says: two digits below 50 are in this century, others in the
+     * last, as are three digits.
+     */
+    private static int year(int year, int digits) {
+
+        if ( digits == 2 ) {
+            return ( year < 50 ) ? 2000 + year : 1900 + year;
+        }
+
+        if ( digits == 3 ) {
+            return 1900 + year;
+        }
+
+        return year;
+    }
+
+    private static int lengthOf(int month, int year) {
+
+        switch ( month ) {
+            case 2:
+                return ( ( year % 4 == 0 ) &&
+                    ( ( year % 100 != 0 ) || ( year % 400 == 0 ) ) ) ? 29 : 28;
+            case 4:
+            case 6:
+            case 9:
+            case 11:
+                return 30;
+            default:
+                return 31;
+        }
+    }
+
+    /**
+     * Returns the index of the name in the given table the given range is,
+     * ignoring case, or -1. The range is the name either abbreviated to
+     * three letters or in full, such as "Oct" or "October".
+     */
+    private static int find(String[] names, String value, int start,
+        int end) {
+
+        int length = end - start;
+
+        for ( int index = 0; index < names.length; index++ ) {
+
+            String name = names[index];
+
+            if ( ( length == 3 ) || ( length == name.length() ) ) {
+
+                int at;
+
+                for ( at = 0; ( at < length ) &&
+                    ( name.charAt(at) == lower(value.charAt(start + at)) );
+                    at++ ) {
+                }
+
+                if ( at == length ) {
+                    return index;
+                }
+            }
+        }
+
+        return -1;
+    }
+
+    /**
+     * Returns the offset in seconds of the obsolete zone name in the given
+     * range. Unknown names, military zones among them, are UTC.
+     */
+    private static int zone(String value, int start, int end) {
+
+        char first;
+        int hours;
+
+        if ( end - start != 3 ) {
+            return 0;
+        }
+
+        first = lower(value.charAt(start));
+
+        switch ( first ) {
+            case 'e':
+                hours = -5;
+                break;
+            case 'c':
+                hours = -6;
+                break;
+            case 'm':
+                hours = -7;
+                break;
+            case 'p':
+                hours = -8;
+                break;
+            default:
+                return 0;
+        }
+
+        if ( lower(value.charAt(start + 2)) != 't' ) {
+            return 0;
+        }
+
+        switch ( lower(value.charAt(start + 1)) ) {
+            case 's':
+                return hours * 3600;
+            case 'd':
+                return ( hours + 1 ) * 3600;
+            default:
+                return 0;
+        }
+    }
+
+}
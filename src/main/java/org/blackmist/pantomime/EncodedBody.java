@@ -0,0 +1,229 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.StandardOpenOption;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.blackmist.pantomime.ContentTransferEncoding.*;
+
+/**
+ * A body encoded for transport once, to be written out any number of
+ * times, by any number of threads.
+ * <p>
+ * A small body is kept in memory. A large one is kept in a temporary file
+ * mapped into memory, and the file is removed as soon as it is mapped.
+ */
+final class EncodedBody {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(EncodedBody.class.getName());
+
+    /* beyond this, the body is mapped from a file */
+    private static final int MEMORY_LIMIT = 1024 * 1024;
+
+    private final ByteBuffer encoded;
+    private final ContentTransferEncoding encoding;
+
+    private EncodedBody(ByteBuffer encoded,
+        ContentTransferEncoding encoding) {
+
+        this.encoded = encoded;
+        this.encoding = encoding;
+    }
+
+    /**
+     * Encodes the body of the given single part, or returns null if it has
+     * none.
+     */
+    static EncodedBody encode(Part part) throws PantomimeException {
+
+        InputStream stream = part.asSinglePart().getTransferEncodedBody();
+        ContentTransferEncoding encoding = part.getContentTransferEncoding();
+
+        if ( stream == null ) {
+            return null;
+        }
+
+        try {
+
+            return new EncodedBody(read(stream),
+                ( encoding == null ) ? SEVEN_BIT : encoding);
+
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(EncodedBody.class, stream);
+        }
+    }
+
+    /**
+     * Reads the stream into memory, or into a mapped file once it is too
+     * big. Reads in bulk and finishes off with read(), as the serializer
+     * does.
+     */
+    private static ByteBuffer read(InputStream stream) throws IOException {
+
+        ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        byte[] buffer = new byte[16384];
+        File spill = null;
+        FileChannel channel = null;
+        long position = 0;
+        int bytesRead;
+        int next;
+
+        try {
+
+            while ( true ) {
+
+                bytesRead = stream.read(buffer);
+
+                if ( bytesRead <= 0 ) {
+
+                    if ( ( next = stream.read() ) == -1 ) {
+                        break;
+                    }
+
+                    buffer[0] = (byte)next;
+                    bytesRead = 1;
+                }
+
+                if ( channel == null ) {
+
+                    memory.write(buffer, 0, bytesRead);
+
+                    if ( memory.size() <= MEMORY_LIMIT ) {
+                        continue;
+                    }
+
+                    spill = File.createTempFile("Pantomime-", ".encoded");
+
+                    channel = FileChannel.open(spill.toPath(),
+                        StandardOpenOption.READ, StandardOpenOption.WRITE);
+
+                    position = write(channel, memory.toByteArray(),
+                        memory.size(), 0);
+
+                    memory = null;
+
+                } else {
+                    position = write(channel, buffer, bytesRead, position);
+                }
+            }
+
+            if ( channel == null ) {
+                return ByteBuffer.wrap(memory.toByteArray());
+            }
+
+            return channel.map(FileChannel.MapMode.READ_ONLY, 0, position);
+
+        } finally {
+
+            if ( channel != null ) {
+                channel.close();
+            }
+
+            /* the mapping outlives the file */
+            if ( ( spill != null ) && ( ! spill.delete() ) ) {
+                log.warn("Unable to delete temporary file: " + spill + ".");
+                spill.deleteOnExit();
+            }
+        }
+    }
+
+    private static long write(FileChannel channel, byte[] data, int count,
+        long position) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+
+        while ( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+
+        return position;
+    }
+
+    ContentTransferEncoding getEncoding() {
+        return encoding;
+    }
+
+    /**
+     * Returns the size of the encoded body.
+     */
+    long size() {
+        return encoded.limit();
+    }
+
+    /**
+     * Returns the encoded body.
+     */
+    InputStream getInputStream() {
+
+        final ByteBuffer buffer = encoded.duplicate();
+
+        return new InputStream() {
+
+            public int read() {
+                return buffer.hasRemaining() ? buffer.get() & 0xff : -1;
+            }
+
+            public int read(byte[] b, int off, int len) {
+
+                int count;
+
+                if ( len == 0 ) {
+                    return 0;
+                }
+
+                if ( ! buffer.hasRemaining() ) {
+                    return -1;
+                }
+
+                count = Math.min(len, buffer.remaining());
+
+                buffer.get(b, off, count);
+
+                return count;
+            }
+
+            public int available() {
+                return buffer.remaining();
+            }
+        };
+    }
+
+    /**
+     * Returns the body decoded.
+     */
+    InputStream getDecodedInputStream() {
+
+        if ( encoding == BASE64 ) {
+            return new Base64DecodeInputStream(getInputStream());
+        } else if ( encoding == QUOTED_PRINTABLE ) {
+            return new QuotedPrintableDecodeInputStream(getInputStream());
+        }
+
+        return getInputStream();
+    }
+
+}
@@ -0,0 +1,347 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.File;
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.nio.file.StandardOpenOption;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Holds the encoded body of a part, encoded ahead on another thread while
+ * the parts before it are written out.
+ * <p>
+ * The first bytes are kept in memory. The rest spill to a temporary file.
+ * The reader gets the bytes as soon as they are encoded, and waits for
+ * more when it catches up.
+ * <p>
+ * Whoever gets to the body first encodes it. A serialization that reaches
+ * a part whose encoding has not started yet, e.g., because the executor is
+ * busy, claims the part and encodes it itself.
+ */
+final class EncodedBodyBuffer implements Runnable {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(EncodedBodyBuffer.class.getName());
+
+    private static final int CHUNK_SIZE = 65536;
+
+    /* per body, beyond this it goes to disk */
+    private static final int MEMORY_LIMIT = 4 * 1024 * 1024;
+
+    private final Part part;
+
+    private final List<byte[]> chunks = new ArrayList<byte[]>();
+    private File spill;
+    private FileChannel channel;
+
+    /* bytes encoded so far, guarded by this */
+    private long length = 0;
+
+    private boolean claimed = false;
+    private boolean finished = false;
+    private boolean released = false;
+    private IOException failure;
+
+    EncodedBodyBuffer(Part part) {
+        this.part = part;
+    }
+
+    /**
+     * Takes the body for whoever calls first. Returns false if it has
+     * already been taken.
+     */
+    synchronized boolean claim() {
+
+        if ( claimed ) {
+            return false;
+        }
+
+        claimed = true;
+
+        return true;
+    }
+
+    /**
+     * Encodes the body into this buffer, unless it has been claimed.
+     */
+    public void run() {
+
+        InputStream stream = null;
+
+        if ( ! claim() ) {
+            return;
+        }
+
+        try {
+
+            stream = part.asSinglePart().getTransferEncodedBody();
+
+            fill(stream);
+
+        } catch (IOException e) {
+            fail(e);
+        } catch (PantomimeException e) {
+            fail(new IOException(e));
+        } catch (RuntimeException e) {
+            fail(new IOException(e));
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    private void fill(InputStream stream) throws IOException {
+
+        byte[] scratch = null;
+
+        while ( ! isReleased() ) {
+
+            int bytesRead;
+
+            if ( length < MEMORY_LIMIT ) {
+
+                byte[] chunk;
+                int offset = (int)( length % CHUNK_SIZE );
+
+                if ( offset == 0 ) {
+                    chunk = new byte[CHUNK_SIZE];
+                    addChunk(chunk);
+                } else {
+                    chunk = getChunk(chunks.size() - 1);
+                }
+
+                bytesRead = stream.read(chunk, offset, CHUNK_SIZE - offset);
+
+                if ( bytesRead <= 0 ) {
+                    break;
+                }
+
+                grow(bytesRead);
+
+                continue;
+            }
+
+            if ( scratch == null ) {
+
+                scratch = new byte[CHUNK_SIZE];
+                openSpill();
+
+                if ( spill == null ) {
+                    /* released meanwhile */
+                    break;
+                }
+            }
+
+            bytesRead = stream.read(scratch);
+
+            if ( bytesRead <= 0 ) {
+                break;
+            }
+
+            write(scratch, bytesRead, length - MEMORY_LIMIT);
+
+            grow(bytesRead);
+        }
+
+        finish();
+    }
+
+    private synchronized void addChunk(byte[] chunk) {
+        chunks.add(chunk);
+    }
+
+    private synchronized byte[] getChunk(int index) {
+        return chunks.get(index);
+    }
+
+    private synchronized void openSpill() throws IOException {
+
+        if ( released ) {
+            return;
+        }
+
+        spill = File.createTempFile("Pantomime-", ".encoded");
+
+        channel = FileChannel.open(spill.toPath(), StandardOpenOption.READ,
+            StandardOpenOption.WRITE);
+    }
+
+    private void write(byte[] data, int count, long position)
+        throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, count);
+
+        while ( buffer.hasRemaining() ) {
+            position += channel.write(buffer, position);
+        }
+    }
+
+    private synchronized void grow(int count) {
+        length += count;
+        notifyAll();
+    }
+
+    private synchronized void finish() {
+        finished = true;
+        notifyAll();
+        cleanUp();
+    }
+
+    private synchronized void fail(IOException e) {
+        log.error("Unable to encode body ahead.", e);
+        failure = e;
+        finish();
+    }
+
+    private synchronized boolean isReleased() {
+        return released;
+    }
+
+    /**
+     * Lets go of the buffer. Encoding stops, and the temporary file is
+     * removed once nobody is using it.
+     */
+    synchronized void release() {
+        released = true;
+        claimed = true;
+        notifyAll();
+        cleanUp();
+    }
+
+    private void cleanUp() {
+
+        if ( ( ! released ) || ( ! finished ) || ( spill == null ) ) {
+            return;
+        }
+
+        try {
+            channel.close();
+        } catch (IOException e) {
+            log.warn("Unable to close " + spill + ".");
+        }
+
+        if ( ! spill.delete() ) {
+            log.warn("Unable to delete temporary file: " + spill + ".");
+        }
+
+        spill = null;
+        chunks.clear();
+    }
+
+    /**
+     * Waits until there are bytes past the given position, or no more are
+     * coming. Returns the number of bytes available there.
+     */
+    private synchronized long await(long position) throws IOException {
+
+        while ( ( length <= position ) && ( ! finished ) && ( ! released ) ) {
+
+            try {
+                wait();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException(e);
+            }
+        }
+
+        if ( failure != null ) {
+            throw new IOException(failure);
+        }
+
+        if ( released ) {
+            throw new IOException("Encoded body already released.");
+        }
+
+        return length - position;
+    }
+
+    /**
+     * Returns the encoded body. It starts reading as soon as the encoding
+     * has started.
+     */
+    InputStream getInputStream() {
+
+        return new InputStream() {
+
+            private long position = 0;
+
+            public int read() throws IOException {
+
+                byte[] single = new byte[1];
+
+                if ( read(single, 0, 1) <= 0 ) {
+                    return -1;
+                }
+
+                return single[0] & 0xff;
+            }
+
+            public int read(byte[] b, int off, int len) throws IOException {
+
+                long available;
+                int count;
+
+                if ( len == 0 ) {
+                    return 0;
+                }
+
+                available = await(position);
+
+                if ( available == 0 ) {
+                    return -1;
+                }
+
+                count = (int)Math.min(len, available);
+
+                if ( position < MEMORY_LIMIT ) {
+
+                    int offset = (int)( position % CHUNK_SIZE );
+
+                    count = Math.min(count, CHUNK_SIZE - offset);
+
+                    System.arraycopy(getChunk((int)( position / CHUNK_SIZE )),
+                        offset, b, off, count);
+
+                } else {
+
+                    ByteBuffer buffer = ByteBuffer.wrap(b, off, count);
+
+                    count = channel.read(buffer, position - MEMORY_LIMIT);
+
+                    if ( count <= 0 ) {
+                        throw new IOException("Unable to read " + spill +
+                            ".");
+                    }
+                }
+
+                position += count;
+
+                return count;
+            }
+
+            public void close() {
+            }
+        };
+    }
+
+}
@@ -0,0 +1,401 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Keeps the new bodies of parts encoded for transport, so a message that
+ * is serialized again, e.g., for a retry or for another transport, copies
+ * them instead of reading and encoding them again.
+ * <p>
+ * A body is kept once it has been read through to the end. The most
+ * recently used bodies are kept in memory, up to the memory limit. Bodies
+ * pushed out of memory, or too big for it, go to temporary files, up to
+ * the disk limit. The least recently used bodies are dropped beyond that.
+ * <p>
+ * A body is dropped as soon as the part is given a new one. Bodies read
+ * from a message source are already encoded and are not kept.
+ * <p>
+ * One cache may be shared by any number of messages and threads.
+ *
+ * @see Part#setEncodedBodyCache
+ */
+public final class EncodedBodyCache {
+
+    private static final Logger log =
+        LoggerFactory.getLogger(EncodedBodyCache.class.getName());
+
+    private final long memoryLimit;
+    private final long diskLimit;
+
+    /* least recently used first */
+    private final LinkedHashMap<Entry, Entry> entries =
+        new LinkedHashMap<Entry, Entry>(16, 0.75f, true);
+
+    private long memoryUsed = 0;
+    private long diskUsed = 0;
+
+    /**
+     * A body, kept either in memory or in a file.
+     */
+    static final class Entry {
+
+        private byte[] data;
+        private File file;
+        private long size;
+        private boolean removed = false;
+    }
+
+    /**
+     * Creates a cache holding up to the given number of bytes in memory and
+     * on disk.
+     */
+    public EncodedBodyCache(long memoryLimit, long diskLimit) {
+        this.memoryLimit = memoryLimit;
+        this.diskLimit = diskLimit;
+    }
+
+    /**
+     * Returns the number of bytes kept in memory.
+     */
+    public synchronized long getMemoryUsed() {
+        return memoryUsed;
+    }
+
+    /**
+     * Returns the number of bytes kept on disk.
+     */
+    public synchronized long getDiskUsed() {
+        return diskUsed;
+    }
+
+    /**
+     * Drops every body.
+     */
+    public synchronized void clear() {
+
+        for ( Entry entry : entries.keySet() ) {
+            free(entry);
+        }
+
+        entries.clear();
+    }
+
+    /**
+     * Returns the kept body, or null if it is not kept (anymore).
+     */
+    synchronized InputStream open(Entry entry) {
+
+        if ( ( entry == null ) || ( entries.get(entry) == null ) ) {
+            return null;
+        }
+
+        if ( entry.data != null ) {
+            return new ByteArrayInputStream(entry.data);
+        }
+
+        try {
+            return new FileInputStream(entry.file);
+        } catch (IOException e) {
+            log.warn("Unable to open cached body " + entry.file + ".", e);
+            remove(entry);
+            return null;
+        }
+    }
+
+    /**
+     * Returns true if the body is kept.
+     */
+    synchronized boolean contains(Entry entry) {
+        return ( entry != null ) && entries.containsKey(entry);
+    }
+
+    /**
+     * Drops the body for good.
+     */
+    synchronized void remove(Entry entry) {
+
+        if ( entry == null ) {
+            return;
+        }
+
+        entry.removed = true;
+
+        if ( entries.remove(entry) != null ) {
+            free(entry);
+        }
+    }
+
+    /**
+     * Returns the given encoded body, keeping a copy in the given entry by
+     * the time it has been read to the end.
+     */
+    InputStream capture(InputStream stream, Entry entry) {
+
+        if ( stream == null ) {
+            return null;
+        }
+
+        return new CaptureInputStream(stream, entry);
+    }
+
+    private synchronized void put(Entry entry, ByteArrayOutputStream memory,
+        File file, long size) {
+
+        if ( entry.removed || ( entries.get(entry) != null ) ||
+            ( ( memory == null ) && ( size > diskLimit ) ) ) {
+
+            /* given a new body meanwhile, already kept, or too big */
+            deleteFile(file);
+            return;
+        }
+
+        entry.size = size;
+
+        if ( memory != null ) {
+            entry.data = memory.toByteArray();
+            memoryUsed += size;
+        } else {
+            entry.file = file;
+            diskUsed += size;
+        }
+
+        entries.put(entry, entry);
+
+        evict();
+    }
+
+    /**
+     * Moves the least recently used bodies out of memory and off the disk
+     * until both are within their limits.
+     */
+    private void evict() {
+
+        Iterator<Entry> iterator = entries.keySet().iterator();
+
+        while ( ( memoryUsed > memoryLimit ) && iterator.hasNext() ) {
+
+            Entry entry = iterator.next();
+
+            if ( ( entry.data != null ) && ( ! spill(entry) ) ) {
+                iterator.remove();
+            }
+        }
+
+        iterator = entries.keySet().iterator();
+
+        while ( ( diskUsed > diskLimit ) && iterator.hasNext() ) {
+
+            Entry entry = iterator.next();
+
+            if ( entry.file != null ) {
+                iterator.remove();
+                free(entry);
+            }
+        }
+    }
+
+    /**
+     * Moves the body from memory to a file. Returns false, with the body
+     * dropped, if that fails.
+     */
+    private boolean spill(Entry entry) {
+
+        OutputStream out = null;
+        File file = null;
+        boolean spilled = false;
+
+        memoryUsed -= entry.size;
+
+        try {
+
+            file = File.createTempFile("Pantomime-", ".encoded");
+            out = new FileOutputStream(file);
+            out.write(entry.data);
+
+            entry.file = file;
+            diskUsed += entry.size;
+            spilled = true;
+
+        } catch (IOException e) {
+            log.warn("Unable to move cached body to disk.", e);
+            deleteFile(file);
+        } finally {
+            StreamUtility.close(this, out);
+        }
+
+        entry.data = null;
+
+        return spilled;
+    }
+
+    private void free(Entry entry) {
+
+        if ( entry.data != null ) {
+            memoryUsed -= entry.size;
+            entry.data = null;
+        }
+
+        if ( entry.file != null ) {
+            diskUsed -= entry.size;
+            deleteFile(entry.file);
+            entry.file = null;
+        }
+    }
+
+    private static void deleteFile(File file) {
+
+        if ( ( file != null ) && file.exists() && ( ! file.delete() ) ) {
+            log.warn("Unable to delete temporary file: " + file + ".");
+        }
+    }
+
+    /**
+     * Passes the body through, copying it to memory, or to a file once it
+     * outgrows the memory limit. Hands the copy to the cache at the end of
+     * the stream. A stream closed early keeps nothing.
+     */
+    private final class CaptureInputStream extends FilterInputStream {
+
+        private final Entry entry;
+
+        private ByteArrayOutputStream memory = new ByteArrayOutputStream();
+        private File file;
+        private OutputStream out;
+        private long size = 0;
+        private boolean capturing = true;
+
+        CaptureInputStream(InputStream stream, Entry entry) {
+            super(stream);
+            this.entry = entry;
+        }
+
+        public int read() throws IOException {
+
+            int b = in.read();
+
+            if ( b == -1 ) {
+                finish();
+            } else {
+                copy(new byte[] { (byte)b }, 0, 1);
+            }
+
+            return b;
+        }
+
+        public int read(byte[] b, int off, int len) throws IOException {
+
+            int bytesRead = in.read(b, off, len);
+
+            if ( bytesRead > 0 ) {
+                copy(b, off, bytesRead);
+            } else if ( bytesRead == -1 ) {
+                finish();
+            }
+
+            return bytesRead;
+        }
+
+        public long skip(long n) throws IOException {
+            abandon();
+            return in.skip(n);
+        }
+
+        public boolean markSupported() {
+            return false;
+        }
+
+        private void copy(byte[] b, int off, int len) {
+
+            if ( ! capturing ) {
+                return;
+            }
+
+            size += len;
+
+            try {
+
+                if ( ( memory != null ) && ( size > memoryLimit ) ) {
+
+                    file = File.createTempFile("Pantomime-", ".encoded");
+                    out = new FileOutputStream(file);
+                    memory.writeTo(out);
+                    memory = null;
+                }
+
+                if ( memory != null ) {
+                    memory.write(b, off, len);
+                } else {
+                    out.write(b, off, len);
+                }
+
+            } catch (IOException e) {
+                log.warn("Unable to cache body.", e);
+                abandon();
+            }
+        }
+
+        private void finish() {
+
+            if ( ! capturing ) {
+                return;
+            }
+
+            capturing = false;
+
+            StreamUtility.close(this, out);
+            out = null;
+
+            put(entry, memory, file, size);
+
+            memory = null;
+            file = null;
+        }
+
+        private void abandon() {
+
+            capturing = false;
+
+            StreamUtility.close(this, out);
+            out = null;
+            memory = null;
+            deleteFile(file);
+            file = null;
+        }
+
+        public void close() throws IOException {
+
+            if ( capturing ) {
+                abandon();
+            }
+
+            StreamUtility.close(this, in);
+        }
+    }
+
+}
@@ -0,0 +1,231 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.nio.charset.Charset;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Decodes the RFC 2047 encoded words in an unfolded header value.
+ * <p>
+ * An encoded word looks like <code>=?charset?B?text?=</code>, or
+ * <code>=?charset?Q?text?=</code>. The value is walked once, left to right.
+ * Each encoded word is decoded in place in a scratch array, and the text
+ * around it is copied as it is. Whitespace between two encoded words is
+ * dropped. A value without encoded words is returned as it is.
+ * <p>
+ * Anything that starts like an encoded word but is not one is left alone.
+ * A character set Java does not know is read as the default character set.
+ *
+ * @see <a href="http://tools.ietf.org/html/rfc2047">RFC 2047 on encoded words.</a>
+ */
+final class EncodedWordDecoder {
+
+    /* enough for the character sets any one application runs into */
+    private static final int MAX_CHARSETS = 256;
+
+    private static final ConcurrentHashMap<String, Charset> charsets =
+        new ConcurrentHashMap<String, Charset>();
+
+    private static final Logger log =
+        LoggerFactory.getLogger(EncodedWordDecoder.class.getName());
+
+    private EncodedWordDecoder() {
+    }
+
+    /**
+     * Returns the given value with its encoded words decoded.
+     */
+    static String decode(String value) {
+
+        StringBuilder decoded = null;
+        byte[] bytes = null;
+        int copied = 0;
+        int previousEnd = -1;
+        int start;
+
+        if ( value == null ) {
+            return null;
+        }
+
+        start = value.indexOf("=?");
+
+        while ( start > -1 ) {
+
+            int charsetEnd = value.indexOf('?', start + 2);
+            int encodingEnd = ( charsetEnd == -1 ) ? -1 :
+                value.indexOf('?', charsetEnd + 1);
+            int textEnd = ( encodingEnd == -1 ) ? -1 :
+                value.indexOf('?', encodingEnd + 1);
+            int encoding;
+            int length;
+            byte[] text;
+
+            if ( textEnd == -1 ) {
+                /* no complete encoded word left */
+                break;
+            }
+
+            encoding = getEncoding(value, charsetEnd + 1, encodingEnd);
+
+            if ( ( textEnd + 1 >= value.length() ) ||
+                ( value.charAt(textEnd + 1) != '=' ) ||
+                ( encoding == -1 ) ) {
+
+                start = value.indexOf("=?", start + 1);
+                continue;
+            }
+
+            if ( decoded == null ) {
+                decoded = new StringBuilder(value.length());
+            }
+
+            length = textEnd - ( encodingEnd + 1 );
+
+            if ( ( bytes == null ) || ( bytes.length < length ) ) {
+                bytes = new byte[Math.max(length, 64)];
+            }
+
+            text = bytes;
+
+            if ( ! toBytes(value, encodingEnd + 1, textEnd, text) ) {
+                /* not supposed to be here. take it as is. */
+                text = value.substring(encodingEnd + 1, textEnd).getBytes();
+                length = text.length;
+            }
+
+            if ( encoding == 'B' ) {
+                length = Base64DecodeInputStream.decodeInPlace(text, 0,
+                    length);
+            } else {
+                length = QuotedPrintableDecodeInputStream.decodeInPlace(text,
+                    0, length, true);
+            }
+
+            if ( ( previousEnd != copied ) ||
+                ( ! isWhitespace(value, copied, start) ) ) {
+                decoded.append(value, copied, start);
+            }
+
+            decoded.append(new String(text, 0, length,
+                getCharset(value.substring(start + 2, charsetEnd))));
+
+            copied = previousEnd = textEnd + 2;
+
+            start = value.indexOf("=?", copied);
+        }
+
+        if ( decoded == null ) {
+            return value;
+        }
+
+        decoded.append(value, copied, value.length());
+
+        return decoded.toString();
+    }
+
+    /**
+     * Returns B or Q for the encoding between the given positions, ignoring
+     * whitespace around it, or -1 if it is neither.
+     */
+    private static int getEncoding(String value, int start, int end) {
+
+        char encoding = 0;
+
+        for ( int index = start; index < end; index++ ) {
+
+            char next = value.charAt(index);
+
+            if ( next <= ' ' ) {
+                continue;
+            }
+
+            if ( encoding != 0 ) {
+                return -1;
+            }
+
+            encoding = Character.toUpperCase(next);
+        }
+
+        return ( ( encoding == 'B' ) || ( encoding == 'Q' ) ) ? encoding : -1;
+    }
+
+    private static boolean isWhitespace(String value, int start, int end) {
+
+        for ( int index = start; index < end; index++ ) {
+
+            char next = value.charAt(index);
+
+            if ( ( next != ' ' ) && ( next != '\t' ) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Copies the encoded text between the given positions into the array.
+     * Returns false if there is anything other than ASCII in it.
+     */
+    private static boolean toBytes(String value, int start, int end,
+        byte[] bytes) {
+
+        for ( int index = start; index < end; index++ ) {
+
+            char next = value.charAt(index);
+
+            if ( next > 127 ) {
+                return false;
+            }
+
+            bytes[index - start] = (byte)next;
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the named character set, without any RFC 2231 language
+     * suffix, or the default character set if Java does not know it.
+     */
+    private static Charset getCharset(String name) {
+
+        Charset charset = charsets.get(name);
+
+        if ( charset != null ) {
+            return charset;
+        }
+
+        int language = name.indexOf('*');
+
+        try {
+            charset = Charset.forName(( language == -1 ) ? name :
+                name.substring(0, language));
+        } catch (IllegalArgumentException e) {
+            log.debug("Unknown charset " + name + ". Using default.");
+            charset = Charset.defaultCharset();
+        }
+
+        if ( charsets.size() < MAX_CHARSETS ) {
+            charsets.putIfAbsent(name, charset);
+        }
+
+        return charset;
+    }
+
+}
@@ -22,6 +22,10 @@ import java.io.InputStream;
 import java.io.IOException;
 import java.io.RandomAccessFile;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
 import java.util.ArrayList;
 import java.util.Hashtable;
 import java.util.List;
@@ -117,18 +121,102 @@ public class FileMessageSource extends StreamMessageSource {
         }
     }
 
+    int read(long position, byte[] data, int offset, int length)
+        throws PantomimeException {
+
+        try {
+            return file.getChannel().read(
+                ByteBuffer.wrap(data, offset, length), position);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        }
+    }
+
+    /**
+     * Returns the whole message as a
+     * {@link jakarta.mail.internet.SharedInputStream}.
+     * <p>
+     * Hand it to
+     * {@link jakarta.mail.internet.MimeMessage#MimeMessage(jakarta.mail.Session, InputStream)}
+     * and JavaMail will parse the message lazily over this file instead of
+     * copying it into memory. The stream is only good until this source
+     * is freed.
+     */
+    public InputStream getSharedInputStream() throws PantomimeException {
+        return new MessageSourceSharedInputStream(this, 0, getLength());
+    }
+
     /**
      * (Internal Use.) Returns the body of the MIME part for the given MimPath.
      */
     public InputStream getBody(MimePath path) throws PantomimeException {
-        long bodyStart = getBodyStart(path);
-        long bodyEnd = getBodyEnd(path);
+        return getRange(getBodyStart(path), getBodyEnd(path));
+    }
+
+    boolean isRandomAccess() {
+        return true;
+    }
+
+    InputStream getRange(long start, long end) throws PantomimeException {
         InputStream stream = new RandomAccessFileMimePartInputStream(file,
-            bodyStart, bodyEnd);
+            start, end);
         StreamMonitor.opened(this, stream);
         return stream;
     }
 
+    /**
+     * (Internal Use.) Decodes the Base64 body of the MIME part for the
+     * given MimePath into the given file at the given position, on up to
+     * the given number of threads. Returns the number of bytes written.
+     */
+    long decodeBase64Body(MimePath path, FileChannel target, long position,
+        int parallelism) throws PantomimeException {
+
+        long bodyStart = getBodyStart(path);
+
+        /* The body stream reads up to and including the end position. */
+        long bodyEnd = Math.min(getBodyEnd(path) + 1, getLength());
+
+        return new ParallelBase64Decoder(this, bodyStart, bodyEnd)
+            .decodeTo(target, position, parallelism);
+    }
+
+    /**
+     * (Internal Use.) Copies the MIME part for the given MimePath, exactly
+     * as it is in the file, to the given channel without going through the
+     * heap. Returns the number of bytes copied.
+     */
+    long transferTo(MimePath path, boolean withHeaders,
+        WritableByteChannel target) throws PantomimeException {
+
+        long position = getSourceStart(path, withHeaders);
+        long end = position + getSourceSize(path, withHeaders);
+        long start = position;
+
+        try {
+
+            FileChannel channel = file.getChannel();
+
+            while ( position < end ) {
+
+                long count = channel.transferTo(position, end - position,
+                    target);
+
+                if ( count <= 0 ) {
+                    throw new PantomimeException("Unable to copy " + filename
+                        + " from " + position + ".");
+                }
+
+                position += count;
+            }
+
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        }
+
+        return position - start;
+    }
+
     /**
      * Frees resources used by this FileMessageSource.
      */
@@ -166,10 +254,17 @@ public class FileMessageSource extends StreamMessageSource {
             fos = new FileOutputStream(temp);
             StreamMonitor.opened(this, fos);
 
-            buffer = new byte[16384];
+            if ( stream instanceof PartInputStream ) {
+
+                ((PartInputStream)stream).writeTo(fos);
+
+            } else {
+
+                buffer = new byte[16384];
 
-            while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
-                fos.write(buffer, 0, bytesRead);
+                while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
+                    fos.write(buffer, 0, bytesRead);
+                }
             }
 
             if ( ! temp.renameTo(this.f) ) {
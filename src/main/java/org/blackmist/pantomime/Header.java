@@ -14,21 +14,16 @@
 
 package org.blackmist.pantomime;
 
-import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
-import java.io.InputStream;
-import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.nio.charset.Charset;
 
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-
-import java.text.SimpleDateFormat;
-import java.text.ParseException;
+import java.util.Locale;
 
 import java.util.Calendar;
 
+import java.time.OffsetDateTime;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -77,143 +72,36 @@ public class Header {
     /* The folded, encoded value. */
     private String value;
 
-    private HashMap<String, String> subFields =
-        new HashMap<String, String>();
- 
-    private static Logger log = LoggerFactory.getLogger(Header.class.getName());
+    /* fold(encode(value)), worked out when first needed */
+    private String transferEncodedValue;
 
-    private int getFourthQuestionMark(String string, int mark) {
+    /* The whole header as it was in the message source, for as long as it
+     * is not changed. */
+    private String raw;
 
-        for ( int index = 0; index < 4; index++ ) {
+    /* when the header last changed, see Part.nextChange(), or 0 if it is
+     * as it was read from a source */
+    private long lastChange = 0;
 
-            mark = string.indexOf("?", mark+1);
+    /* the value split into its main field and parameters, worked out when
+     * first asked for */
+    private SubFields subFields;
 
-            if ( mark == -1 ) {
-                return -1;
-            }
+    /* the value as a date-time, worked out when first asked for, or
+     * NOT_A_DATE */
+    private OffsetDateTime dateTime;
 
-        }
+    private static final OffsetDateTime NOT_A_DATE = OffsetDateTime.MIN;
+ 
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
 
-        return mark;
-    }
+    private static Logger log = LoggerFactory.getLogger(Header.class.getName());
 
+    /**
+     * Decodes the RFC 2047 encoded words in the given unfolded value.
+     */
     protected String decode(String string) {
-
-        int mark = -1;
-
-        if ( string == null ) {
-            return null;
-        }
-
-        /* If there is an instance where one encoded field follows another
-         * e.g.,  =?iso?Q?=AB?= =?iso?Q?=AB?=
-         * that space in between was added by the encoding process.
-         * It should be removed.
-         */
-        String previous = null;
-        string = string.replaceAll("\\?= =\\?", "\\?==\\?");
-
-        while ( !string.equals(previous) && ( mark = string.indexOf("=?", mark+1) ) > -1 ) {
-
-            int start = mark;
-            int end = getFourthQuestionMark(string, mark-1);
-            String replacement;
-            StringBuilder builder;
-            previous = string;
-
-            if ( end == -1 ) {
-                return string;
-            }
-
-            if ( string.charAt(end+1) != '=' ) {
-                continue;
-            }
-
-            replacement = _decode(string.substring(start, end+2));
-
-            builder = new StringBuilder();
-
-            builder.append(string.substring(0, start));
-            builder.append(replacement);
-            builder.append(string.substring(end+2));
-
-            string = builder.toString();
-
-            mark = -1;
-
-        }
-
-        return string;
-    }
-
-//      =?gb2312?B?z7XNs83L0MU=?=
-    private String _decode(String string) {
-        ByteArrayInputStream bais = null;
-        InputStream stream = null;
-        ByteArrayOutputStream baos = null;
-
-
-        if ( string == null ) {
-            return null;
-        }
-
-        if ( ! string.startsWith("=?") ) {
-            return string;
-        }
-
-        try {
-            
-            String[] fields = string.split("\\?");
-            byte[] buffer = new byte[1024];
-            String encoding;
-            String charset;
-            String text;
-            int bytesRead;
-
-            if ( fields.length != 5 ) {
-                return string;
-            }
-
-            charset = fields[1];
-            encoding = fields[2].trim();
-            text = fields[3];
-
-            bais = new ByteArrayInputStream(text.getBytes());
-            StreamMonitor.opened(this, bais);
-
-            if ( encoding.equalsIgnoreCase("Q") ) {
-                stream = new QuotedPrintableDecodeInputStream(bais, true);
-            } else if ( encoding.equalsIgnoreCase("B") ) {
-                stream = new Base64DecodeInputStream(bais);
-            } else {
-                return string;
-            }
-
-            StreamMonitor.opened(this, stream);
-
-            baos = new ByteArrayOutputStream();
-            StreamMonitor.opened(this, baos);
-
-            while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
-                baos.write(buffer, 0, bytesRead);
-            }
-
-            return baos.toString(charset);
-
-        } catch (UnsupportedEncodingException e) {
-            log.error("Unable to decode header.", e);
-            return baos.toString();
-
-        } catch (IOException e) {
-            log.error("Unable to decode header.", e);
-            return string;
-
-        } finally {
-            StreamUtility.close(this, bais);
-            StreamUtility.close(this, baos);
-            StreamUtility.close(this, stream);
-        }
-
+        return EncodedWordDecoder.decode(string);
     }
 
     protected String unfold(String string) {
@@ -243,11 +131,45 @@ public class Header {
      */
     public String getTransferEncodedValue() throws PantomimeException {
 
+        String value = getValue();
+
         if ( value == null ) {
             return "";
         }
 
-        return fold(encode(value));
+        if ( transferEncodedValue == null ) {
+            transferEncodedValue = fold(encode(value));
+        }
+
+        return transferEncodedValue;
+    }
+
+    /**
+     * Returns the whole header, name and all, as it was in the message
+     * source with the line endings made CRLF, or null if this header did
+     * not come from a source or has been changed since.
+     */
+    String getRawHeader() {
+        return raw;
+    }
+
+    void setRawHeader(String raw) {
+        this.raw = raw;
+    }
+
+    /**
+     * (Internal Use.) Sets the header as it was read from a message source,
+     * with the given encoded, folded value and the whole header as it was
+     * there, or null. Reading a header is not a change, so unlike the
+     * setters this leaves the header clean.
+     */
+    void load(String name, String value, String raw) {
+        this.name = name;
+        this.value = decode(unfold(value));
+        this.raw = raw;
+        transferEncodedValue = null;
+        subFields = null;
+        dateTime = null;
     }
 
     /**
@@ -272,6 +194,8 @@ public class Header {
      */
     public int getValueAsInt() {
 
+        String value = getValue();
+
         if ( value != null ) {
 
             try {
@@ -286,64 +210,57 @@ public class Header {
     }
 
     /**
-     * Attempts to parse the header value as a date.
+     * Attempts to parse the header value as an RFC 5322 date-time.
+     * <p>
+     * The value is parsed once and kept until it changes.
      *
      * Returns null if not a date.
      *
      */
-    public Calendar getValueAsDate() {
-
-        Calendar cal = Calendar.getInstance();
-
-        SimpleDateFormat sdf =
-            new SimpleDateFormat("EEE, dd MMM yyyy HH:mm:ss zzzzz");
-
-        try {
-
-            cal.setTime(sdf.parse(value.trim()));
-
-            return cal;
+    public OffsetDateTime getValueAsDateTime() {
 
-        } catch (ParseException e) {
+        OffsetDateTime parsed = dateTime;
 
-            try {
-
-                sdf = new SimpleDateFormat("dd MMM yyyy HH:mm:ss zzzzz");
+        if ( parsed == null ) {
 
-                cal.setTime(sdf.parse(value.trim()));
+            parsed = DateParser.parse(getValue());
 
-                return cal;
-
-            } catch ( ParseException e2 ) {
+            if ( parsed == null ) {
+                parsed = NOT_A_DATE;
+            }
 
-                log.warn("Unable to parse date string " + value +
-                    ". Defaulting to now.");
+            dateTime = parsed;
+        }
 
-                cal.setTimeInMillis(System.currentTimeMillis());
+        return ( parsed == NOT_A_DATE ) ? null : parsed;
+    }
 
-                return cal;
+    /**
+     * Attempts to parse the header value as a date, in the default time
+     * zone.
+     *
+     * Returns now if not a date.
+     *
+     * @see #getValueAsDateTime
+     */
+    public Calendar getValueAsDate() {
 
-            }
+        Calendar cal = Calendar.getInstance();
+        OffsetDateTime parsed = getValueAsDateTime();
 
-        } 
+        if ( parsed == null ) {
 
-    }
+            log.warn("Unable to parse date string " + getValue() +
+                ". Defaulting to now.");
 
-    private void processEndOfSubFieldValue(String currentSubName,
-        StringBuilder buffer) {
+            cal.setTimeInMillis(System.currentTimeMillis());
 
-        if ( currentSubName == null ) {
-            if ( ! subFields.containsKey("main") ) {
-                subFields.put("main", buffer.toString());
-            }
-        } else {
-            if ( ! subFields.containsKey(currentSubName) ) {
-                subFields.put(currentSubName, buffer.toString());
-            }
+            return cal;
         }
 
-        buffer.delete(0, buffer.length());
+        cal.setTimeInMillis(parsed.toInstant().toEpochMilli());
 
+        return cal;
     }
 
     private static class SubFieldProfile {
@@ -443,31 +360,74 @@ public class Header {
         return tokens;
     }
 
-    private void setSubFields(String value) {
+    /**
+     * The main field and parameters of a value, with the parameter names in
+     * lower case. Never changed once made, so it can be shared.
+     */
+    private static final class SubFields {
 
-        List<String> tokens = tokenize(value);
+        private static final String[] NONE = new String[0];
 
-        for ( int index = 0; index < tokens.size(); index++ ) {
+        private final String main;
+        private final String[] names;
+        private final String[] values;
 
-            if ( index == 0 ) {
+        private SubFields(String main, String[] names, String[] values) {
+            this.main = main;
+            this.names = names;
+            this.values = values;
+        }
 
-                subFields.put("main", tokens.get(index).toLowerCase().trim());
+        private String get(String name) {
 
-            } else if ( (index+1) == tokens.size() ) {
+            /* the last one wins */
+            for ( int index = names.length - 1; index >= 0; index-- ) {
 
-                /* ignore dangling value */
+                if ( names[index].equalsIgnoreCase(name) ) {
+                    return values[index];
+                }
+            }
 
-            } else {
+            return null;
+        }
+    }
 
-                String name = tokens.get(index).toLowerCase().trim();
-                String stuff = tokens.get(index+1);
-                subFields.put(name, stuff);
-                index++;
+    private SubFields getSubFields() {
 
-            }
+        SubFields fields = subFields;
+
+        if ( fields == null ) {
+            fields = parseSubFields(getValue());
+            subFields = fields;
+        }
+
+        return fields;
+    }
+
+    private SubFields parseSubFields(String value) {
+
+        List<String> tokens;
+        String[] names;
+        String[] values;
 
+        if ( value == null ) {
+            return new SubFields(null, SubFields.NONE, SubFields.NONE);
         }
 
+        tokens = tokenize(value);
+
+        /* a dangling name at the end is ignored */
+        names = new String[( tokens.size() - 1 ) / 2];
+        values = new String[names.length];
+
+        for ( int index = 0; index < names.length; index++ ) {
+            names[index] = tokens.get(1 + index * 2).toLowerCase(Locale.ROOT)
+                .trim();
+            values[index] = tokens.get(2 + index * 2);
+        }
+
+        return new SubFields(tokens.get(0).toLowerCase(Locale.ROOT).trim(),
+            names, values);
     }
 
     /**
@@ -480,7 +440,7 @@ public class Header {
      * this will return <code>attachment</code>.
      */
     public String getMainField() {
-        return subFields.get("main");
+        return getSubFields().main;
     }
 
     /**
@@ -494,20 +454,22 @@ public class Header {
      * this will return <code>test.txt</code>.
      */
     public String getSubField(String subName) {
-        return subFields.get(subName);
+
+        SubFields fields = getSubFields();
+        String field = fields.get(subName);
+
+        if ( ( field == null ) && "main".equals(subName) ) {
+            return fields.main;
+        }
+
+        return field;
     }
 
     private int indexOfNextAscii(char[] plain, int offset ) {
         int index = offset;
 
-        while ( index < plain.length ) {
-
-            if ( Character.codePointAt(plain, index) < 128 ) {
-                return index;
-            }
-
+        while ( ( index < plain.length ) && ( plain[index] >= 128 ) ) {
             index++;
-
         }
 
         return index;
@@ -517,14 +479,8 @@ public class Header {
     private int indexOfNextNonAscii(char[] plain, int offset ) {
         int index = offset;
 
-        while ( index < plain.length ) {
-
-            if ( Character.codePointAt(plain, index) >= 128 ) {
-                return index;
-            }
-
+        while ( ( index < plain.length ) && ( plain[index] < 128 ) ) {
             index++;
-
         }
 
         return index;
@@ -541,53 +497,89 @@ public class Header {
 
     }
 
+    /**
+     * Returns the number of UTF-8 bytes the character at the given index
+     * adds to the segment starting at offset. A lone surrogate is
+     * written as a question mark.
+     */
+    private static int getUtf8Length(char[] chars, int offset, int index) {
+
+        char c = chars[index];
+
+        if ( c < 0x800 ) {
+            return 2;
+        }
+
+        if ( Character.isHighSurrogate(c) ) {
+            return 1;
+        }
+
+        if ( Character.isLowSurrogate(c) ) {
+
+            /* the high surrogate before it was counted as 1 */
+            if ( ( index > offset ) &&
+                Character.isHighSurrogate(chars[index-1]) ) {
+                return 3;
+            }
+
+            return 1;
+        }
+
+        return 3;
+    }
+
+    /**
+     * Returns the end of the longest run of non-ASCII characters from the
+     * given offset that still fits on a line once encoded, or -1 if not
+     * even one does.
+     */
     private int getEndOfNonAsciiHeaderValueSegment(char[] chars, int offset,
         int codePoint) {
 
         int max = 76 - ( getName().length() + 12 + 2 );
 
-        int end = indexOfNextAscii(chars, offset);
+        int limit = indexOfNextAscii(chars, offset);
+        int end = -1;
+        int length = 0;
 
-        while ( end > offset ) {
+        for ( int index = offset; index < limit; index++ ) {
 
-            String s = new String(chars, offset, (end - offset));
             int size;
-            byte[] input;
 
-            try {
-                input = s.getBytes("utf-8");
-            } catch (UnsupportedEncodingException e) {
-                log.error("Unable to get bytes.", e);
-                input = s.getBytes();
-            }
+            length += getUtf8Length(chars, offset, index);
 
             if ( codePoint > 976 ) {
-                size = getBase64Size(input.length);
+
+                size = getBase64Size(length);
+
+                /* the Base64 size wobbles, but never by more than this */
+                if ( length * 4 / 3 > max ) {
+                    break;
+                }
+
             } else {
-                size = input.length * 3;
+
+                size = length * 3;
+
+                if ( size > max ) {
+                    break;
+                }
             }
 
             if ( size <= max ) {
-                return end;
+                end = index + 1;
             }
 
-            end--;
-
         }
 
-        return -1;
+        return end;
 
     }
 
     private int encodedNonAscii(char[] chars, int index, int codePoint,
-        StringBuilder builder) throws IOException {
+        StringBuilder builder) {
 
-        String nonAsciiString;
         byte[] inputBytes;
-        byte[] buffer;
-        ByteArrayInputStream bais = null;
-        InputStream encodeStream = null;
-        int bytesRead;
 
         int end = getEndOfNonAsciiHeaderValueSegment(chars, index,
             codePoint);
@@ -596,86 +588,63 @@ public class Header {
             end = chars.length;
         }
 
-        nonAsciiString = new String(chars, index, (end-index));
-
-        try {
-
-            inputBytes = nonAsciiString.getBytes("utf-8");
-        } catch (UnsupportedEncodingException e) {
-            log.error("Unable to get header value in UTF-8.");
-            inputBytes = nonAsciiString.getBytes();
-        }
-
-        try {
+        inputBytes = new String(chars, index, (end-index)).getBytes(UTF_8);
 
-            bais = new ByteArrayInputStream(inputBytes);
+        builder.append("=?utf-8?");
 
-            if ( codePoint > 976 ) {
+        if ( codePoint > 976 ) {
 
-                encodeStream = new Base64EncodeInputStream(bais);
+            builder.append("B?");
 
-            } else {
-
-                encodeStream = new QuotedPrintableEncodeInputStream(bais);
+            Base64EncodeInputStream.appendEncoded(inputBytes, 0,
+                inputBytes.length, builder);
 
-            }
+        } else {
 
-            StreamMonitor.opened(this, encodeStream);
+            QuotedPrintableEncoder encoder = new QuotedPrintableEncoder(false);
+            byte[] encoded = new byte[QuotedPrintableEncoder.MAX_ENCODED_LENGTH];
 
-            buffer = new byte[inputBytes.length*3];
+            builder.append("Q?");
 
-            bytesRead = encodeStream.read(buffer);
+            for ( byte b : inputBytes ) {
 
-            builder.append("=?utf-8?");
+                int length = encoder.encode(b, encoded, 0);
 
-            if ( encodeStream instanceof Base64EncodeInputStream ) {
-                builder.append("B");
-            } else {
-                builder.append("Q");
+                for ( int at = 0; at < length; at++ ) {
+                    builder.append((char)encoded[at]);
+                }
             }
 
-            builder.append("?");
-            builder.append(new String(buffer, 0, bytesRead, "utf-8"));
-            builder.append("?=");
-
-            return end;
-        } finally {
-            StreamUtility.close(this, bais);
-            StreamUtility.close(this, encodeStream);
         }
 
+        builder.append("?=");
+
+        return end;
+
     }
 
     private String encode(String plain) {
 
-
         char[] chars = plain.toCharArray();
 
         int index = 0;
 
-        StringBuilder builder = new StringBuilder();
+        StringBuilder builder = new StringBuilder(chars.length + 16);
 
         while ( index < chars.length ) {
 
-            int codePoint = Character.codePointAt(chars, index);
-
-            if ( codePoint < 128 ) {
+            if ( chars[index] < 128 ) {
 
                 int end = indexOfNextNonAscii(chars, index);
 
-                builder.append(new String(chars, index, (end-index)));
+                builder.append(chars, index, (end-index));
 
                 index = end;
 
-
             } else {
 
-                try {
-                    index = encodedNonAscii(chars, index, codePoint, builder);
-                } catch (IOException e) {
-                    log.error("Unable to encode header.", e);
-                    break;
-                }
+                index = encodedNonAscii(chars, index,
+                    Character.codePointAt(chars, index), builder);
 
             }
 
@@ -685,15 +654,12 @@ public class Header {
 
     }
 
-    private void foldAtSemicolon(List<Character> buffer, char[] chars,
-        FoldProfile profile, StringBuilder folded) {
+    private void foldAtSemicolon(char[] chars, FoldProfile profile,
+        StringBuilder folded) {
         char next;
-        List<Character> sub = buffer.subList(profile.lastBreak,
-            profile.lastSemicolon+1);
 
-        Character[] subChars = sub.toArray(new Character[sub.size()]);
-
-        folded.append(primitize(subChars));
+        folded.append(chars, profile.lastBreak,
+            profile.lastSemicolon + 1 - profile.lastBreak);
         profile.lastBreak = profile.lastSemicolon+1;
         /* check if there is a whitespace next */
         if ( (profile.lastSemicolon+1) < chars.length ) {
@@ -713,51 +679,42 @@ public class Header {
 
     }
 
-    private void foldAtWhitespace(List<Character> buffer, FoldProfile profile,
+    private void foldAtWhitespace(char[] chars, FoldProfile profile,
         StringBuilder folded) {
-        List<Character> sub = buffer.subList(profile.lastBreak,
-            profile.lastWhitespace);
-        Character[] subChars =
-            sub.toArray(new Character[sub.size()]);
 
-        folded.append(primitize(subChars));
+        folded.append(chars, profile.lastBreak,
+            profile.lastWhitespace - profile.lastBreak);
         folded.append("\r\n");
-        folded.append(buffer.get(profile.lastWhitespace));
+        folded.append(chars[profile.lastWhitespace]);
 
         profile.lastBreak = profile.lastWhitespace+1;
         profile.lastSemicolon = profile.lastWhitespace = -1;
 
     }
 
-    private void foldAtEncodingBorder(List<Character> buffer,
+    /**
+     * Folds the line that runs up to the given end.
+     */
+    private void foldAtEncodingBorder(String value, char[] chars, int end,
         FoldProfile profile, StringBuilder folded) {
-        List<Character> sub = buffer.subList(profile.lastBreak, buffer.size());
-        Character[] subChars = sub.toArray(new Character[sub.size()]);
-        String currentBufferedLine = new String(primitize(subChars));
-        int encodeBoundary = currentBufferedLine.indexOf("?==?");
+        int encodeBoundary = value.indexOf("?==?", profile.lastBreak);
 
-        if ( encodeBoundary > -1 ) {
+        if ( ( encodeBoundary > -1 ) && ( encodeBoundary + 4 <= end ) ) {
             encodeBoundary += 2;
 
-            List<Character> sub2 =
-                buffer.subList(profile.lastBreak,
-                encodeBoundary + profile.lastBreak);
-
-            Character[] subChars2 =
-                sub2.toArray(new Character[sub2.size()]);
-
-            folded.append(primitize(subChars2));
+            folded.append(chars, profile.lastBreak,
+                encodeBoundary - profile.lastBreak);
             folded.append("\r\n ");
-            profile.lastBreak += encodeBoundary;
+            profile.lastBreak = encodeBoundary;
 
         }  else {
 
             /* there is no good place for us to break,
              * so we break at 76 chars and insert a new space.
              */
-            folded.append(primitize(subChars)); 
+            folded.append(chars, profile.lastBreak, end - profile.lastBreak);
             folded.append("\r\n ");
-            profile.lastBreak = buffer.size();
+            profile.lastBreak = end;
 
         }
 
@@ -772,51 +729,49 @@ public class Header {
 
     private String fold(String value) {
 
-        StringBuilder folded = new StringBuilder();
-        ArrayList<Character> buffer = new ArrayList<Character>();
-
         char[] chars = value.toCharArray();
 
+        StringBuilder folded = new StringBuilder(chars.length + 16);
+
         boolean inQuotes = false;
 
         FoldProfile profile = new FoldProfile();
 
-        List<Character> lastSegment;
-        Character[] lastSegmentChars;
-
-
         for ( int index = 0; index < chars.length; index++ ) {
 
             char c = chars[index];
 
-            buffer.add(c);
+            /* everything up to and including this character */
+            int end = index + 1;
 
             if ( c == '"' ) {
                 inQuotes = ! inQuotes;
             }
 
             if ( ( c == ';' ) && ( !inQuotes ) ) {
-                profile.lastSemicolon = buffer.size()-1;
+                profile.lastSemicolon = index;
             }
 
-            if ( Character.isWhitespace(c) && ( ! inQuotes ) ) {
-                profile.lastWhitespace = buffer.size()-1;
+            /* the whitespace after a semicolon fold is already written */
+            if ( Character.isWhitespace(c) && ( ! inQuotes ) &&
+                ( index >= profile.lastBreak ) ) {
+                profile.lastWhitespace = index;
             }
 
-            if ( (buffer.size()-profile.lastBreak) >= 76 ) {
+            if ( (end-profile.lastBreak) >= 76 ) {
 
                 if ( profile.lastSemicolon > -1 ) {
                     /* first we try to fold a line between subfields */
-                    foldAtSemicolon(buffer, chars, profile, folded);
+                    foldAtSemicolon(chars, profile, folded);
 
                 } else if ( profile.lastWhitespace > -1 ) {
                     /* next we try to fold a line at a natural space */
-                    foldAtWhitespace(buffer, profile, folded);
+                    foldAtWhitespace(chars, profile, folded);
 
                 } else {
 
                     /* next we try to fold between encoded parts */
-                    foldAtEncodingBorder(buffer, profile, folded);
+                    foldAtEncodingBorder(value, chars, end, profile, folded);
 
                 }
 
@@ -825,28 +780,23 @@ public class Header {
 
         }
 
-        lastSegment = buffer.subList(profile.lastBreak, buffer.size());
-        lastSegmentChars = lastSegment.toArray(new Character[lastSegment.size()]);
-        folded.append(primitize(lastSegmentChars));
+        folded.append(chars, profile.lastBreak,
+            chars.length - profile.lastBreak);
 
 
         return folded.toString();
     }
 
-    private char[] primitize(Character[] chars) {
-        char[] newChars = new char[chars.length];
-        for (int index = 0; index < chars.length; index++ ) {
-            newChars[index] = chars[index];
-        }
-        return newChars;
-    }
-
     /**
      * Sets the header value with the given encoded, folded string.
      */
     public void setTransferEncodedValue(String  value) {
         this.value=decode(unfold(value));
-        setSubFields(this.value);
+        transferEncodedValue = null;
+        raw = null;
+        lastChange = Part.nextChange();
+        subFields = null;
+        dateTime = null;
     }
     
     /**
@@ -859,7 +809,11 @@ public class Header {
         }
 
         this.value=value;
-        setSubFields(value);
+        transferEncodedValue = null;
+        raw = null;
+        lastChange = Part.nextChange();
+        subFields = null;
+        dateTime = null;
     }
     
     /**
@@ -867,6 +821,61 @@ public class Header {
      */
     public void setName(String  name) {
         this.name=name;
+        transferEncodedValue = null;
+        raw = null;
+        lastChange = Part.nextChange();
+    }
+
+    /**
+     * (Internal Use.) For a subclass that keeps its value in some other
+     * form, sets the value it writes out from that form, without counting
+     * as a change.
+     */
+    void setRenderedValue(String value) {
+        this.value = value;
+    }
+
+    /**
+     * (Internal Use.) For a subclass that keeps its value in some other
+     * form, drops everything worked out from the value, which has changed.
+     */
+    void valueChanged() {
+        transferEncodedValue = null;
+        raw = null;
+        lastChange = Part.nextChange();
+        subFields = null;
+        dateTime = null;
+    }
+
+    long getLastChange() {
+        return lastChange;
+    }
+
+    /**
+     * Returns a new, empty header of the same kind as this one, for
+     * {@link #copy}. Subclasses override it to return their own kind.
+     */
+    protected Header newInstance() {
+        return new Header();
+    }
+
+    /**
+     * (Internal Use.) Returns an independent copy of this header, of the
+     * same kind.
+     */
+    Header copy() {
+
+        Header copy = newInstance();
+
+        copy.name = name;
+        copy.value = getValue();
+        copy.transferEncodedValue = transferEncodedValue;
+        copy.raw = raw;
+        copy.lastChange = lastChange;
+        copy.subFields = subFields;
+        copy.dateTime = dateTime;
+
+        return copy;
     }
 
     /**
@@ -874,7 +883,7 @@ public class Header {
      * decoded and un-folded.
      */
     public String toString() {
-        return name + ": " + value;
+        return name + ": " + getValue();
     }
 }
 
@@ -0,0 +1,181 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+/**
+ * Header names, compared without regard to ASCII case.
+ * <p>
+ * Header names are ASCII, so only A to Z are folded, whatever the default
+ * locale. The well-known names are kept in a table, folded and as they are
+ * usually written. Folding one of them returns the one folded instance
+ * from the table, without allocating anything, so that maps keyed by
+ * folded names mostly compare keys by identity and never work out their
+ * hash codes again.
+ */
+final class HeaderName {
+
+    private static final String[] NAMES = {
+        "Return-Path", "Received", "Date", "From", "Sender", "Reply-To",
+        "To", "Cc", "Bcc", "Message-ID", "In-Reply-To", "References",
+        "Subject", "Comments", "Keywords", "Resent-Date", "Resent-From",
+        "Resent-Sender", "Resent-To", "Resent-Cc", "Resent-Bcc",
+        "Resent-Message-ID", "MIME-Version", "Content-Type",
+        "Content-Transfer-Encoding", "Content-Disposition", "Content-ID",
+        "Content-Description", "Content-Language", "Content-Location",
+        "Content-MD5", "Content-Base", "Content-Length", "DKIM-Signature",
+        "DomainKey-Signature", "ARC-Seal", "ARC-Message-Signature",
+        "ARC-Authentication-Results", "Authentication-Results",
+        "Received-SPF", "Delivered-To", "X-Original-To", "Envelope-To",
+        "Errors-To", "Organization", "Priority", "Importance", "X-Priority",
+        "X-MSMail-Priority", "X-Mailer", "User-Agent", "Thread-Topic",
+        "Thread-Index", "List-Id", "List-Unsubscribe",
+        "List-Unsubscribe-Post", "List-Post", "List-Help", "List-Subscribe",
+        "List-Archive", "List-Owner", "Precedence", "Auto-Submitted",
+        "Disposition-Notification-To", "Return-Receipt-To", "X-Spam-Status",
+        "X-Spam-Score", "X-Spam-Flag", "X-Mailing-List",
+        "X-Originating-IP", "X-MS-Has-Attach", "X-MS-TNEF-Correlator",
+        "Feedback-ID", "Autocrypt"
+    };
+
+    private static final String[] FOLDED = new String[NAMES.length];
+
+    /* open addressing on the folded hash, each slot an index + 1 */
+    private static final int[] TABLE = new int[256];
+    private static final int MASK = TABLE.length - 1;
+
+    static {
+
+        for ( int index = 0; index < NAMES.length; index++ ) {
+
+            int slot;
+
+            FOLDED[index] = fold(NAMES[index], 0, NAMES[index].length());
+
+            for ( slot = FOLDED[index].hashCode() & MASK; TABLE[slot] != 0;
+                slot = ( slot + 1 ) & MASK ) {
+            }
+
+            TABLE[slot] = index + 1;
+        }
+    }
+
+    private HeaderName() {
+    }
+
+    private static char fold(char c) {
+        return ( ( c >= 'A' ) && ( c <= 'Z' ) ) ? (char)( c + 32 ) : c;
+    }
+
+    private static String fold(String name, int start, int end) {
+
+        char[] chars = new char[end - start];
+
+        for ( int index = start; index < end; index++ ) {
+            chars[index - start] = fold(name.charAt(index));
+        }
+
+        return new String(chars);
+    }
+
+    /**
+     * Returns the index of the well-known name the given range matches,
+     * ignoring case, or -1.
+     */
+    private static int find(String name, int start, int end) {
+
+        int hash = 0;
+        int length = end - start;
+
+        /* the same as hashCode() of the folded name */
+        for ( int index = start; index < end; index++ ) {
+            hash = 31 * hash + fold(name.charAt(index));
+        }
+
+        for ( int slot = hash & MASK; TABLE[slot] != 0;
+            slot = ( slot + 1 ) & MASK ) {
+
+            int found = TABLE[slot] - 1;
+            String folded = FOLDED[found];
+
+            if ( ( folded.length() == length ) &&
+                matches(folded, name, start) ) {
+                return found;
+            }
+        }
+
+        return -1;
+    }
+
+    private static boolean matches(String folded, String name, int start) {
+
+        for ( int index = 0; index < folded.length(); index++ ) {
+
+            if ( folded.charAt(index) != fold(name.charAt(start + index)) ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * Returns the given name folded to lower case.
+     */
+    static String fold(String name) {
+
+        int found = find(name, 0, name.length());
+
+        if ( found != -1 ) {
+            return FOLDED[found];
+        }
+
+        for ( int index = 0; index < name.length(); index++ ) {
+
+            if ( fold(name.charAt(index)) != name.charAt(index) ) {
+                return fold(name, 0, name.length());
+            }
+        }
+
+        return name;
+    }
+
+    /**
+     * Returns the header name in the given range of a header line, trimmed.
+     * A well-known name written the usual way comes from the table rather
+     * than a new string.
+     */
+    static String name(String line, int start, int end) {
+
+        int found;
+
+        while ( ( start < end ) &&
+            Character.isWhitespace(line.charAt(start)) ) {
+            start++;
+        }
+
+        while ( ( end > start ) &&
+            Character.isWhitespace(line.charAt(end - 1)) ) {
+            end--;
+        }
+
+        found = find(line, start, end);
+
+        if ( ( found != -1 ) &&
+            line.regionMatches(start, NAMES[found], 0, end - start) ) {
+            return NAMES[found];
+        }
+
+        return line.substring(start, end);
+    }
+
+}
@@ -254,10 +254,12 @@ public class InputStreamMessageSource extends StreamMessageSource {
     }
 
     public InputStream getBody(MimePath path) throws PantomimeException {
-        long bodyStart = getBodyStart(path);
-        long bodyEnd = getBodyEnd(path);
+        return getRange(getBodyStart(path), getBodyEnd(path));
+    }
+
+    InputStream getRange(long start, long end) throws PantomimeException {
         InputStream stream = new InputStreamMimePartInputStream(source,
-            bodyStart, bodyEnd);
+            start, end);
         StreamMonitor.opened(this, stream);
         return stream;
     }
@@ -22,6 +22,8 @@ import java.io.UnsupportedEncodingException;
 
 import java.text.SimpleDateFormat;
 
+import java.time.OffsetDateTime;
+
 import java.util.ArrayList;
 import java.util.Calendar;
 import java.util.Collection;
@@ -53,6 +55,10 @@ public class Message extends Part {
     private static Logger log =
         LoggerFactory.getLogger(Message.class.getName());
 
+    /* the last serialized size worked out, and as of which change */
+    private long serializedSize = -1;
+    private long serializedSizeChange = -1;
+
     Message(boolean defaultHeaders) {
         super();
         muster(null, new MimePath());
@@ -94,45 +100,6 @@ public class Message extends Part {
 
     }
 
-    private List<Address> splitAddresses(String string) {
-
-        List<Address> list = new ArrayList<Address>();
-        StringBuilder buffer = new StringBuilder();
-        boolean inQuotes = false;
-
-        for ( char c : string.toCharArray() ) {
-
-            if ( c == '"' ) {
-
-                inQuotes = ! inQuotes;
-                buffer.append(c);
-
-            } else if ( c == ',' ) {
-
-                if ( inQuotes ) {
-
-                    buffer.append(c);
-                    continue;
-
-                } else {
-
-                    list.add(new Address(buffer.toString()));
-                    buffer.delete(0, buffer.length());
-
-                }
-            } else {
-
-                buffer.append(c);
-            }
-
-        }
-
-        list.add(new Address(buffer.toString()));
-
-        return list;
-
-    }
-
     private List<Address> getRecipients(String headerName) {
         List<Header> headers = getHeaders(headerName);
 
@@ -146,7 +113,11 @@ public class Message extends Part {
 
         for ( Header header : headers ) {
 
-            addresses.addAll(splitAddresses(header.getValue()));
+            if ( header instanceof AddressListHeader ) {
+                addresses.addAll(((AddressListHeader)header).getAddresses());
+            } else {
+                addresses.addAll(Address.parseList(header.getValue()));
+            }
         }
 
         return addresses;
@@ -258,6 +229,22 @@ public class Message extends Part {
         return header.getValueAsDate();
     }
 
+    /**
+     * Gets the Date header as a date-time, with the offset it was written
+     * with.
+     *
+     * @return null if there is no Date header or it is not a date.
+     */
+    public OffsetDateTime getDateTime() {
+        Header header = getFirstHeader("date");
+
+        if ( header == null ) {
+            return null;
+        }
+
+        return header.getValueAsDateTime();
+    }
+
     /**
      * Gets the plain content of the first inlined text/plain part.
      * It could simply be the body of the message, or the first
@@ -474,6 +461,11 @@ public class Message extends Part {
     /**
      * Converts the message into a {@link jakarta.mail.internet.MimeMessage}
      * suitable for feeding to JavaMail for SMTP delivery.
+     * <p>
+     * The returned message is a view of this one. Its body is not copied
+     * but serialized from this message whenever JavaMail reads or writes it,
+     * so large messages can go to {@link jakarta.mail.Transport#send} in
+     * constant memory. Do not free this message while the view is in use.
      *
      * @param session The SMTP session.
      *
@@ -481,11 +473,7 @@ public class Message extends Part {
      */
     public MimeMessage toJavaMail(Session session) throws PantomimeException {
 
-        JavaMailMessageSource source = new JavaMailMessageSource(session);
-
-        saveAs(source);
-
-        return source.getMime();
+        return new PartMimeMessage(session, this);
 
     }
 
@@ -614,28 +602,97 @@ public class Message extends Part {
         addToRecipient(new Address(newAddress));
     }
 
-    private void addRecipient(String type, Address newAddress) {
-        Header header = getFirstHeader(type);
-        StringBuilder builder = new StringBuilder();
-        String value;
+    /**
+     * Returns the header at the given index of the given list as an
+     * {@link AddressListHeader}, putting one in its place if need be. The
+     * new one is written out as the old one was until it is changed.
+     */
+    private AddressListHeader asAddressList(List<Header> headerList,
+        int index) {
 
-        if ( header == null ) {
-            header = new Header();
+        Header header = headerList.get(index);
+        AddressListHeader addressList;
+
+        if ( header instanceof AddressListHeader ) {
+            return (AddressListHeader)header;
+        }
+
+        addressList = new AddressListHeader();
+        addressList.setName(header.getName());
+        addressList.setValue(header.getValue());
+        addressList.setRawHeader(header.getRawHeader());
+        headerList.set(index, addressList);
+
+        return addressList;
+    }
+
+    private AddressListHeader getAddressList(String type) {
+        List<Header> headerList = getHeaders(type);
+        AddressListHeader header;
+
+        if ( ( headerList == null ) || headerList.isEmpty() ) {
+            header = new AddressListHeader();
             header.setName(type);
             addHeader(header);
+            return header;
+        }
+
+        return asAddressList(headerList, 0);
+    }
+
+    private void addRecipient(String type, Address newAddress) {
+        getAddressList(type).add(newAddress);
+    }
+
+    private void addRecipients(String type, Collection<Address> newAddresses) {
+        getAddressList(type).addAll(newAddresses);
+    }
+
+    private void addRecipientStrings(String type,
+        Collection<String> newAddresses) {
+
+        List<Address> addresses = new ArrayList<Address>(newAddresses.size());
+
+        for ( String address : newAddresses ) {
+            addresses.add(new Address(address));
+        }
+
+        addRecipients(type, addresses);
+    }
+
+    private void removeRecipient(String type, Address address) {
+        List<Header> headerList = getHeaders(type);
+
+        if ( headerList == null ) {
+            return;
         }
 
-        value = header.getValue();
+        for ( int index = 0; index < headerList.size(); index++ ) {
+            asAddressList(headerList, index).remove(address);
+        }
+    }
+
+    private void setRecipients(String type, Collection<Address> newAddresses) {
+        List<Header> headerList = getHeaders(type);
 
-        if ( ( value != null ) && ( value.length() > 0 ) ) {
-            builder.append(value);
-            builder.append(", ");
+        if ( ( headerList == null ) || headerList.isEmpty() ) {
+            addRecipients(type, newAddresses);
+            return;
         }
 
-        builder.append(newAddress.toString());
+        asAddressList(headerList, 0).setAddresses(newAddresses);
+    }
 
-        header.setValue(builder.toString());
+    private void setRecipientStrings(String type,
+        Collection<String> newAddresses) {
 
+        List<Address> addresses = new ArrayList<Address>(newAddresses.size());
+
+        for ( String address : newAddresses ) {
+            addresses.add(new Address(address));
+        }
+
+        setRecipients(type, addresses);
     }
 
     /**
@@ -662,17 +719,7 @@ public class Message extends Part {
      * @param newAddress The To address to remove.
      */
     public void removeToRecipient(Address newAddress) {
-        List<Address> addresses = getToRecipients();
-
-        for ( int index = addresses.size()-1; index >= 0; index-- ) {
-            Address address = addresses.get(index);
-
-            if ( address.getEmail().equals(newAddress.getEmail()) ) {
-                addresses.remove(index);
-            }
-        }
-
-        setToRecipients(addresses);
+        removeRecipient("To", newAddress);
     }
 
     /**
@@ -681,9 +728,7 @@ public class Message extends Part {
      * @param newAddresses The new To address.
      */
     public void addToRecipientStrings(Collection<String> newAddresses) {
-        for ( String address : newAddresses) {
-            addToRecipient(address);
-        }
+        addRecipientStrings("To", newAddresses);
     }
 
     /**
@@ -692,9 +737,7 @@ public class Message extends Part {
      * @param newAddresses The new To address.
      */
     public void addToRecipients(Collection<Address> newAddresses) {
-        for ( Address address : newAddresses) {
-            addToRecipient(address);
-        }
+        addRecipients("To", newAddresses);
     }
 
     /**
@@ -703,19 +746,12 @@ public class Message extends Part {
      * @param newAddresses The new To addresses.
      */
     public void setToRecipientStrings(Collection<String> newAddresses) {
-        Header header = getFirstHeader("To");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        for ( String address : newAddresses ) {
-            addToRecipient(address);
-        }
+        setRecipientStrings("To", newAddresses);
     }
 
     /**
@@ -724,17 +760,12 @@ public class Message extends Part {
      * @param newAddresses The new To addresses.
      */
     public void setToRecipients(Collection<Address> newAddresses) {
-        Header header = getFirstHeader("To");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        addToRecipients(newAddresses);
+        setRecipients("To", newAddresses);
     }
 
     /**
@@ -770,17 +801,7 @@ public class Message extends Part {
      * @param newAddress The CC address to remove.
      */
     public void removeCcRecipient(Address newAddress) {
-        List<Address> addresses = getCcRecipients();
-
-        for ( int index = addresses.size()-1; index >= 0; index-- ) {
-            Address address = addresses.get(index);
-
-            if ( address.getEmail().equals(newAddress.getEmail()) ) {
-                addresses.remove(index);
-            }
-        }
-
-        setCcRecipients(addresses);
+        removeRecipient("Cc", newAddress);
     }
 
     /**
@@ -794,9 +815,7 @@ public class Message extends Part {
             return;
         }
 
-        for ( String address : newAddresses) {
-            addCcRecipient(address);
-        }
+        addRecipientStrings("Cc", newAddresses);
     }
 
     /**
@@ -810,9 +829,7 @@ public class Message extends Part {
             return;
         }
 
-        for ( Address address : newAddresses) {
-            addCcRecipient(address);
-        }
+        addRecipients("Cc", newAddresses);
     }
 
     /**
@@ -821,19 +838,12 @@ public class Message extends Part {
      * @param newAddresses The new CC addresses.
      */
     public void setCcRecipientStrings(Collection<String> newAddresses) {
-        Header header = getFirstHeader("Cc");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        for ( String address : newAddresses ) {
-            addCcRecipient(address);
-        }
+        setRecipientStrings("Cc", newAddresses);
     }
 
     /**
@@ -842,19 +852,12 @@ public class Message extends Part {
      * @param newAddresses The new CC addresses.
      */
     public void setCcRecipients(Collection<Address> newAddresses) {
-        Header header = getFirstHeader("Cc");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        for ( Address address : newAddresses ) {
-            addCcRecipient(address);
-        }
+        setRecipients("Cc", newAddresses);
     }
 
     /**
@@ -890,17 +893,7 @@ public class Message extends Part {
      * @param newAddress The BCC address to remove.
      */
     public void removeBccRecipient(Address newAddress) {
-        List<Address> addresses = getBccRecipients();
-
-        for ( int index = addresses.size()-1; index >= 0; index-- ) {
-            Address address = addresses.get(index);
-
-            if ( address.getEmail().equals(newAddress.getEmail()) ) {
-                addresses.remove(index);
-            }
-        }
-
-        setBccRecipients(addresses);
+        removeRecipient("Bcc", newAddress);
     }
 
     /**
@@ -914,9 +907,7 @@ public class Message extends Part {
             return;
         }
 
-        for ( String address : newAddresses) {
-            addBccRecipient(address);
-        }
+        addRecipientStrings("Bcc", newAddresses);
     }
 
     /**
@@ -930,9 +921,7 @@ public class Message extends Part {
             return;
         }
 
-        for ( Address address : newAddresses) {
-            addBccRecipient(address);
-        }
+        addRecipients("Bcc", newAddresses);
     }
 
     /**
@@ -941,19 +930,12 @@ public class Message extends Part {
      * @param newAddresses The new BCC addresses.
      */
     public void setBccRecipientStrings(Collection<String> newAddresses) {
-        Header header = getFirstHeader("Bcc");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        for ( String address : newAddresses ) {
-            addBccRecipient(address);
-        }
+        setRecipientStrings("Bcc", newAddresses);
     }
 
     /**
@@ -962,17 +944,12 @@ public class Message extends Part {
      * @param newAddresses The new BCC addresses.
      */
     public void setBccRecipients(Collection<Address> newAddresses) {
-        Header header = getFirstHeader("Bcc");
 
         if ( newAddresses == null ) {
             return;
         }
 
-        if ( header != null ) {
-            header.setValue("");
-        }
-
-        addBccRecipients(newAddresses);
+        setRecipients("Bcc", newAddresses);
     }
 
     /**
@@ -1007,6 +984,38 @@ public class Message extends Part {
         setHeader(header);
     }
 
+    /**
+     * Returns the exact number of bytes {@link #serialize} comes to, e.g.,
+     * for the SIZE parameter of SMTP, without serializing the message.
+     * <p>
+     * Headers, boundaries, the preamble and the epilogue are added up as
+     * they would be written. New bodies are sized without encoding them,
+     * and untouched parts from the size of their place in the source. The
+     * size is kept until something in the message changes. Changes behind
+     * a file or an InputStreamSource given as content are not noticed.
+     * <p>
+     * Returns -1 if the size cannot be worked out.
+     */
+    public long getSerializedSize() throws PantomimeException {
+
+        long change = getLastChange();
+
+        if ( ( serializedSize >= 0 ) && ( change == serializedSizeChange ) ) {
+            return serializedSize;
+        }
+
+        try {
+            serializedSize = countSerializedSize();
+        } catch (IOException e) {
+            log.error("Unable to get size of stream", e);
+            return -1;
+        }
+
+        serializedSizeChange = change;
+
+        return serializedSize;
+    }
+
     /**
      * Saves this messages to the given storage.
      */
@@ -0,0 +1,202 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import jakarta.mail.internet.SharedInputStream;
+
+/**
+ * A window of a message source that JavaMail can share.
+ * <p>
+ * All streams created with {@link #newStream} read from the same storage
+ * with positional reads. No bytes are copied until they are read, and
+ * reading never disturbs the position used by the message source for
+ * parsing.
+ * <p>
+ * Closing the stream does nothing. The storage belongs to the message
+ * source.
+ */
+class MessageSourceSharedInputStream extends InputStream
+    implements SharedInputStream {
+
+    private StreamMessageSource source;
+
+    /* absolute positions in the source, end is exclusive */
+    private long start;
+    private long end;
+    private long position;
+    private long mark;
+
+    private byte[] buffer = new byte[8192];
+    private long bufferStart = 0;
+    private int bufferLength = 0;
+
+    MessageSourceSharedInputStream(StreamMessageSource source, long start,
+        long end) {
+
+        this.source = source;
+        this.start = this.position = this.mark = start;
+        this.end = end;
+    }
+
+    private boolean isBuffered(long at) {
+        return ( at >= bufferStart ) && ( at < (bufferStart + bufferLength) );
+    }
+
+    private int readSource(long at, byte[] data, int offset, int length)
+        throws IOException {
+
+        try {
+            return source.read(at, data, offset, length);
+        } catch (PantomimeException e) {
+            throw new IOException(e);
+        }
+    }
+
+    private void fill() throws IOException {
+
+        int length = (int)Math.min(buffer.length, end - position);
+        int bytesRead = readSource(position, buffer, 0, length);
+
+        bufferStart = position;
+        bufferLength = ( bytesRead > 0 ) ? bytesRead : 0;
+    }
+
+    public int read() throws IOException {
+
+        if ( position >= end ) {
+            return -1;
+        }
+
+        if ( ! isBuffered(position) ) {
+
+            fill();
+
+            if ( bufferLength == 0 ) {
+                return -1;
+            }
+        }
+
+        return buffer[(int)(position++ - bufferStart)] & 0xff;
+    }
+
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
+
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        int max;
+        int bytesRead;
+
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        if ( position >= end ) {
+            return -1;
+        }
+
+        max = (int)Math.min(len, end - position);
+
+        if ( isBuffered(position) ) {
+
+            int index = (int)(position - bufferStart);
+
+            bytesRead = Math.min(max, bufferLength - index);
+
+            System.arraycopy(buffer, index, b, off, bytesRead);
+
+        } else if ( max >= buffer.length ) {
+
+            /* big reads go straight to the source */
+            bytesRead = readSource(position, b, off, max);
+
+        } else {
+
+            fill();
+
+            bytesRead = Math.min(max, bufferLength);
+
+            System.arraycopy(buffer, 0, b, off, bytesRead);
+        }
+
+        if ( bytesRead <= 0 ) {
+            return -1;
+        }
+
+        position += bytesRead;
+
+        return bytesRead;
+    }
+
+    public long skip(long n) {
+
+        long previousPosition = position;
+
+        if ( n < 0 ) {
+            return 0;
+        }
+
+        position = Math.min(end, position + n);
+
+        return position - previousPosition;
+    }
+
+    public int available() {
+        return (int)Math.min(Integer.MAX_VALUE, end - position);
+    }
+
+    public boolean markSupported() {
+        return true;
+    }
+
+    public void mark(int readLimit) {
+        mark = position;
+    }
+
+    public void reset() {
+        position = mark;
+    }
+
+    public void close() {
+    }
+
+    /**
+     * Returns the current position relative to the start of this stream.
+     */
+    public long getPosition() {
+        return position - start;
+    }
+
+    /**
+     * Returns a new stream over the given range, relative to the start of
+     * this stream. An end of -1 means the end of this stream.
+     */
+    public InputStream newStream(long start, long end) {
+
+        if ( start < 0 ) {
+            throw new IllegalArgumentException("start < 0");
+        }
+
+        if ( end == -1 ) {
+            end = this.end - this.start;
+        }
+
+        return new MessageSourceSharedInputStream(source, this.start + start,
+            Math.min(this.end, this.start + end));
+    }
+
+}
@@ -0,0 +1,63 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+/**
+ * A message to be sent to many recipients, e.g., for a mail merge.
+ * <p>
+ * The template encodes every body of the given message for transport once,
+ * when it is made. Each message it hands out is a copy that shares those
+ * encoded bodies. Change whatever differs per recipient, e.g., the To
+ * header, the subject or a greeting part, with the usual methods. Only what
+ * is changed gets encoded again. A shared attachment is never encoded
+ * more than once, however many messages are sent.
+ * <pre>
+ * MessageTemplate template = new MessageTemplate(newsletter);
+ *
+ * for ( Address recipient : recipients ) {
+ *     Message message = template.newMessage();
+ *     message.addToRecipient(recipient);
+ *     message.writeTo(out);
+ * }
+ * </pre>
+ * Changes made to the given message later on do not show up in the
+ * template. The template itself never changes, so {@link #newMessage} may
+ * be called from any number of threads at once.
+ */
+public class MessageTemplate {
+
+    private final Message prototype;
+
+    /**
+     * Makes a template of the given message, encoding its bodies.
+     */
+    public MessageTemplate(Message message) throws PantomimeException {
+
+        prototype = new Message(false);
+
+        message.copyTo(prototype, new MimePath());
+    }
+
+    /**
+     * Returns a new message, a copy of the template, for one recipient.
+     */
+    public Message newMessage() throws PantomimeException {
+
+        Message message = new Message(false);
+
+        prototype.copyTo(message, new MimePath());
+
+        return message;
+    }
+
+}
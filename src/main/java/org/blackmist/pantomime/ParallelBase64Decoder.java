@@ -0,0 +1,495 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static org.blackmist.pantomime.Base64DecodeInputStream.DECODE;
+import static org.blackmist.pantomime.Base64DecodeInputStream.EQUAL;
+import static org.blackmist.pantomime.Base64DecodeInputStream.EQUAL_BITS;
+import static org.blackmist.pantomime.Base64DecodeInputStream.INVALID;
+
+/**
+ * Decodes a Base64 body straight from its message source into a file,
+ * on several threads.
+ * <p>
+ * The body is cut into chunks, and the work takes two passes over them,
+ * each done in parallel. The first pass counts the Base64 characters in
+ * each chunk and notes where its equal signs fall. That is enough to know
+ * where every quantum starts and where its bytes go in the file, and where
+ * decoding stops. The second pass decodes each chunk into its place in
+ * the file. A quantum that straddles two chunks belongs to the chunk it
+ * starts in.
+ * <p>
+ * The result is byte for byte what {@link Base64DecodeInputStream} gives
+ * for the same body, including the handling of equal signs and of a body
+ * cut short of a full quantum.
+ * <p>
+ * The source must support positional reads from several threads at once,
+ * as {@link FileMessageSource} does.
+ */
+final class ParallelBase64Decoder {
+
+    private static final int CHUNK_SIZE = 4 * 1024 * 1024;
+    private static final int BUFFER_SIZE = 64 * 1024;
+
+    private StreamMessageSource source;
+
+    /* absolute positions in the source, end is exclusive */
+    private long start;
+    private long end;
+
+    private int chunkSize;
+
+    /**
+     * One stretch of the encoded body.
+     */
+    private static class Chunk {
+
+        long start;
+        long end;
+
+        /* from the first pass */
+        long count = 0;
+        boolean startsWithEqual = false;
+
+        /* the first equal sign with each remainder of its index by 4, with
+         * whether the character after it in the chunk is one too */
+        int[] firstEqual = { -1, -1, -1, -1 };
+        boolean[] equalFollows = new boolean[4];
+
+        /* for the second pass */
+        long quantum = 0;
+        int skip = 0;
+        long quanta = 0;
+        int lastBytes = 3;
+
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
+        }
+    }
+
+    ParallelBase64Decoder(StreamMessageSource source, long start, long end) {
+        this(source, start, end, CHUNK_SIZE);
+    }
+
+    ParallelBase64Decoder(StreamMessageSource source, long start, long end,
+        int chunkSize) {
+
+        this.source = source;
+        this.start = start;
+        this.end = end;
+        this.chunkSize = chunkSize;
+    }
+
+    /**
+     * Decodes the body into the given file, starting at the given position,
+     * on no more than the given number of threads. Returns the number of
+     * bytes written.
+     */
+    long decodeTo(final FileChannel target, final long position,
+        int parallelism) throws PantomimeException {
+
+        List<Chunk> chunks = new ArrayList<Chunk>();
+        List<Callable<Void>> tasks = new ArrayList<Callable<Void>>();
+        ForkJoinPool pool;
+        long size;
+
+        for ( long at = start; at < end; at += chunkSize ) {
+            chunks.add(new Chunk(at, Math.min(end, at + chunkSize)));
+        }
+
+        pool = new ForkJoinPool(Math.max(1, parallelism));
+
+        try {
+
+            for ( final Chunk chunk : chunks ) {
+
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        count(chunk);
+                        return null;
+                    }
+                });
+            }
+
+            run(pool, tasks);
+
+            size = plan(chunks);
+
+            tasks.clear();
+
+            for ( final Chunk chunk : chunks ) {
+
+                if ( chunk.quanta == 0 ) {
+                    continue;
+                }
+
+                tasks.add(new Callable<Void>() {
+                    public Void call() throws Exception {
+                        decode(chunk, target, position);
+                        return null;
+                    }
+                });
+            }
+
+            run(pool, tasks);
+
+        } finally {
+            pool.shutdown();
+        }
+
+        return size;
+    }
+
+    private static void run(ForkJoinPool pool, List<Callable<Void>> tasks)
+        throws PantomimeException {
+
+        try {
+
+            for ( Future<Void> result : pool.invokeAll(tasks) ) {
+                result.get();
+            }
+
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new PantomimeException(e);
+        } catch (ExecutionException e) {
+
+            if ( e.getCause() instanceof PantomimeException ) {
+                throw (PantomimeException)e.getCause();
+            }
+
+            throw new PantomimeException(e);
+        }
+    }
+
+    /* no bigger than needed for small chunks, with room to read past */
+    private static int bufferSize(Chunk chunk) {
+        return (int)Math.min(BUFFER_SIZE, chunk.end - chunk.start + 64);
+    }
+
+    private int read(long at, byte[] data) throws PantomimeException {
+        return source.read(at, data, 0,
+            (int)Math.min(data.length, end - at));
+    }
+
+    /**
+     * First pass: counts the Base64 characters in the chunk, and notes its
+     * equal signs.
+     */
+    private void count(Chunk chunk) throws PantomimeException {
+
+        byte[] in = new byte[bufferSize(chunk)];
+        long at = chunk.start;
+        int count = 0;
+        int lastEqual = -2;
+
+        while ( at < chunk.end ) {
+
+            int length = source.read(at, in, 0,
+                (int)Math.min(in.length, chunk.end - at));
+
+            if ( length <= 0 ) {
+                break;
+            }
+
+            at += length;
+
+            for ( int index = 0; index < length; index++ ) {
+
+                int value = DECODE[in[index] & 0xff];
+
+                if ( value == INVALID ) {
+                    continue;
+                }
+
+                if ( value == EQUAL ) {
+
+                    int remainder = count & 3;
+
+                    if ( count == 0 ) {
+                        chunk.startsWithEqual = true;
+                    }
+
+                    if ( lastEqual == count - 1 ) {
+
+                        int previous = lastEqual & 3;
+
+                        if ( chunk.firstEqual[previous] == lastEqual ) {
+                            chunk.equalFollows[previous] = true;
+                        }
+                    }
+
+                    if ( chunk.firstEqual[remainder] == -1 ) {
+                        chunk.firstEqual[remainder] = count;
+                    }
+
+                    lastEqual = count;
+                }
+
+                count++;
+            }
+        }
+
+        chunk.count = count;
+    }
+
+    /**
+     * Works out, from the counts, where decoding stops, which quanta each
+     * chunk decodes, and the number of bytes the body decodes to.
+     */
+    private static long plan(List<Chunk> chunks) {
+
+        long total = 0;
+        long padding = -1;
+        boolean paddingFollowed = false;
+        long quanta;
+        int lastBytes;
+
+        for ( int index = 0; index < chunks.size(); index++ ) {
+
+            Chunk chunk = chunks.get(index);
+            int phase = (int)( total & 3 );
+
+            int first = -1;
+            int remainder = -1;
+
+            /* the first equal sign in the last two places of a quantum */
+            for ( int other = 0; other < 4; other++ ) {
+
+                int next = chunk.firstEqual[other];
+
+                if ( ( next != -1 ) && ( ( ( phase + other ) & 3 ) >= 2 ) &&
+                    ( ( first == -1 ) || ( next < first ) ) ) {
+                    first = next;
+                    remainder = other;
+                }
+            }
+
+            if ( ( padding == -1 ) && ( first != -1 ) ) {
+
+                padding = total + first;
+
+                if ( first + 1 < chunk.count ) {
+                    paddingFollowed = chunk.equalFollows[remainder];
+                } else {
+
+                    for ( int jndex = index + 1; jndex < chunks.size();
+                        jndex++ ) {
+
+                        if ( chunks.get(jndex).count > 0 ) {
+                            paddingFollowed =
+                                chunks.get(jndex).startsWithEqual;
+                            break;
+                        }
+                    }
+                }
+            }
+
+            total += chunk.count;
+        }
+
+        if ( padding != -1 ) {
+
+            /* Decoding stops after this quantum. Each equal sign or missing
+             * character in its last two places takes a byte off. */
+            long last = padding / 4;
+            int equals = 0;
+
+            for ( long place = last * 4 + 2; place < last * 4 + 4; place++ ) {
+
+                if ( ( place >= total ) || ( place == padding ) ||
+                    ( ( place == padding + 1 ) && paddingFollowed ) ) {
+                    equals++;
+                }
+            }
+
+            quanta = last + 1;
+            lastBytes = 3 - equals;
+
+        } else {
+
+            /* A last quantum cut short is padded. */
+            int remainder = (int)( total & 3 );
+
+            quanta = ( total + 3 ) / 4;
+            lastBytes = ( remainder == 0 ) ? 3 : ( remainder == 3 ) ? 2 : 1;
+        }
+
+        total = 0;
+
+        for ( Chunk chunk : chunks ) {
+
+            long first = ( total + 3 ) / 4;
+            long next = Math.min(( total + chunk.count + 3 ) / 4, quanta);
+
+            chunk.quantum = first;
+            chunk.skip = (int)( first * 4 - total );
+            chunk.quanta = Math.max(0, next - first);
+            chunk.lastBytes = ( next == quanta ) ? lastBytes : 3;
+
+            total += chunk.count;
+        }
+
+        return ( quanta == 0 ) ? 0 : ( quanta - 1 ) * 3 + lastBytes;
+    }
+
+    /**
+     * Second pass: decodes the quanta that start in the chunk, reading past
+     * its end to finish the last one, and writes them to their place.
+     */
+    private void decode(Chunk chunk, FileChannel target, long position)
+        throws IOException, PantomimeException {
+
+        byte[] in = new byte[bufferSize(chunk)];
+        byte[] out = new byte[in.length];
+        long at = chunk.start;
+        long outAt = position + chunk.quantum * 3;
+        long quanta = chunk.quanta;
+        int skip = chunk.skip;
+        int bits = 0;
+        int count = 0;
+        int written = 0;
+
+        while ( ( quanta > 0 ) && ( at < end ) ) {
+
+            int length = read(at, in);
+            int index = 0;
+
+            if ( length <= 0 ) {
+                break;
+            }
+
+            at += length;
+
+            while ( ( index < length ) && ( quanta > 0 ) ) {
+
+                int value;
+
+                if ( written + 3 > out.length ) {
+                    outAt += write(target, out, written, outAt);
+                    written = 0;
+                }
+
+                /* Fast path: four valid characters in a row. Any INVALID
+                 * or EQUAL makes the combined value negative.
+                 */
+                if ( ( count == 0 ) && ( skip == 0 ) ) {
+
+                    int room = ( out.length - written ) / 3;
+
+                    while ( ( index + 4 <= length ) && ( quanta > 1 ) &&
+                        ( room > 0 ) ) {
+
+                        value = ( DECODE[in[index] & 0xff] << 18 ) |
+                            ( DECODE[in[index+1] & 0xff] << 12 ) |
+                            ( DECODE[in[index+2] & 0xff] << 6 ) |
+                            DECODE[in[index+3] & 0xff];
+
+                        if ( value < 0 ) {
+                            break;
+                        }
+
+                        out[written] = (byte)(value >> 16);
+                        out[written+1] = (byte)(value >> 8);
+                        out[written+2] = (byte)value;
+
+                        written += 3;
+                        index += 4;
+                        quanta--;
+                        room--;
+                    }
+
+                    if ( index >= length ) {
+                        break;
+                    }
+                }
+
+                value = DECODE[in[index++] & 0xff];
+
+                if ( value == INVALID ) {
+                    continue;
+                }
+
+                if ( skip > 0 ) {
+                    /* the end of a quantum from the chunk before */
+                    skip--;
+                    continue;
+                }
+
+                if ( value == EQUAL ) {
+                    value = EQUAL_BITS;
+                }
+
+                bits = ( bits << 6 ) | value;
+
+                if ( ++count < 4 ) {
+                    continue;
+                }
+
+                written = put(out, written, bits,
+                    ( quanta == 1 ) ? chunk.lastBytes : 3);
+
+                bits = 0;
+                count = 0;
+                quanta--;
+            }
+        }
+
+        if ( ( quanta > 0 ) && ( count > 0 ) ) {
+
+            /* the body ends in the middle of the last quantum */
+            while ( count++ < 4 ) {
+                bits = ( bits << 6 ) | EQUAL_BITS;
+            }
+
+            written = put(out, written, bits, chunk.lastBytes);
+        }
+
+        write(target, out, written, outAt);
+    }
+
+    private static int put(byte[] data, int at, int bits, int length) {
+
+        for ( int index = 0; index < length; index++ ) {
+            data[at++] = (byte)(bits >> ( 16 - index * 8 ));
+        }
+
+        return at;
+    }
+
+    private static int write(FileChannel target, byte[] data, int length,
+        long position) throws IOException {
+
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
+
+        while ( buffer.hasRemaining() ) {
+            position += target.write(buffer, position);
+        }
+
+        return length;
+    }
+
+}
@@ -21,11 +21,17 @@ import java.io.FileInputStream;
 import java.io.FileNotFoundException;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.io.Reader;
 import java.io.UnsupportedEncodingException;
 
 import java.net.FileNameMap;
 import java.net.URLConnection;
 
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.WritableByteChannel;
+
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashMap;
@@ -33,6 +39,9 @@ import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Map;
 
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.atomic.AtomicLong;
+
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
@@ -97,6 +106,15 @@ public class Part {
     private MimePath path;
     private boolean isModified = false;
 
+    private static final AtomicLong changes = new AtomicLong();
+
+    /* when this part itself last changed, see nextChange() */
+    private long lastChange = 0;
+
+    /* where the part was in its source, whatever becomes of path */
+    private MimePath sourcePath;
+    private boolean isBodyModified = false;
+
     private String createBoundary() {
 
         StringBuilder builder;
@@ -131,16 +149,63 @@ public class Part {
     void muster(MessageSource source, MimePath path) {
         this.source = source;
         this.path = path;
+        setSourcePath(path);
         specializeAsSinglePart();
     }
 
     void muster(MessageSource source, MimePath path, String boundary) {
         this.source = source;
         this.path = path;
+        setSourcePath(path);
         specializeAsMultipart();
         asMultipart().setBoundary(boundary);
     }
 
+    /**
+     * Returns a number larger than any returned before, to mark when
+     * something changed.
+     */
+    static long nextChange() {
+        return changes.incrementAndGet();
+    }
+
+    private void markModified() {
+        isModified = true;
+        lastChange = nextChange();
+    }
+
+    /**
+     * (Internal Use.) Returns when this part, its headers or any part
+     * below it last changed, as a number from {@link #nextChange}. Only
+     * sub-parts already loaded are looked at, since nothing else can have
+     * changed.
+     */
+    long getLastChange() {
+
+        long last = lastChange;
+
+        for ( List<Header> headerList : headers.values() ) {
+
+            for ( Header header : headerList ) {
+                last = Math.max(last, header.getLastChange());
+            }
+        }
+
+        if ( isMultipart() && ( multi.proxiedSubParts != null ) ) {
+
+            for ( Part subPart : multi.proxiedSubParts ) {
+                last = Math.max(last, subPart.getLastChange());
+            }
+        }
+
+        return last;
+    }
+
+    private void setSourcePath(MimePath path) {
+        this.sourcePath = ( path == null ) ? null :
+            new MimePath(path.toString());
+    }
+
     private void updateMimePathPrefix(MimePath prefix)
         throws PantomimeException {
 
@@ -301,6 +366,7 @@ public class Part {
     void setHeaders(List<Line> lines) throws PantomimeException {
 
         StringBuilder buffer = null;
+        StringBuilder raw = null;
         Line previous = null;
         Header header = null;
 
@@ -311,13 +377,22 @@ public class Part {
             if ( previous != null && previous.ending.equals("\r") ) {
 
                 buffer.append(previous.ending).append(text);
-                header.setTransferEncodedValue(buffer.toString());
+
+                /* a bare CR has no CRLF equivalent. encode it afresh. */
+                raw = null;
+                header.load(header.getName(), buffer.toString(), null);
 
             } else if ( text.startsWith(" ") || text.startsWith("\t") ) {
 
                 if ( header != null ) {
                     buffer.append(previous.ending).append(text);
-                    header.setTransferEncodedValue(buffer.toString());
+
+                    if ( raw != null ) {
+                        raw.append("\r\n").append(text);
+                    }
+
+                    header.load(header.getName(), buffer.toString(),
+                        ( raw == null ) ? null : raw.toString());
                 }
 
             } else {
@@ -326,30 +401,29 @@ public class Part {
 
                 if ( colon != -1 ) {
 
-                    String name = text.substring(0, colon).trim();
+                    String name = HeaderName.name(text, 0, colon);
+                    String folded = HeaderName.fold(name);
                     String value = text.substring(colon + 1);
+                    List<Header> headerList;
 
-                    if ( name.equalsIgnoreCase("Content-Disposition") ) {
-                        header = new ContentDisposition ();
-                    } else if ( name.equalsIgnoreCase("Content-Type") ) {
-                        header = new ContentType ();
-                    } else {
-                        header = new Header ();
-                    }
+                    header = newHeader(folded);
 
                     while ( value.length() > 0 && Character.isWhitespace(value.charAt(0)) ) {
                         value = value.substring(1);
                     }
 
                     buffer = new StringBuilder (value);
-                    header.setName(name);
-                    header.setTransferEncodedValue(value);
+                    raw = new StringBuilder (text);
+                    header.load(name, value, text);
+
+                    headerList = headers.get(folded);
 
-                    if ( !this.headers.containsKey(name) ) {
-                        headers.put(name, new ArrayList<Header> ());
+                    if ( headerList == null ) {
+                        headerList = new ArrayList<Header> ();
+                        headers.put(folded, headerList);
                     }
 
-                    headers.get(name).add(header);
+                    headerList.add(header);
 
                 } else {
 
@@ -414,6 +488,163 @@ public class Part {
         return stream;
     }
 
+    /**
+     * Returns an InputStream of the entire MIME part for a transport that
+     * can carry what the given policy allows. New bodies that the policy
+     * lets go out as 8bit or binary are not encoded, and their
+     * Content-Transfer-Encoding says so on the way out. The part itself is
+     * not changed, and {@link Message#getSerializedSize} still counts them
+     * encoded.
+     */
+    public InputStream serialize(SerializationPolicy policy)
+        throws PantomimeException {
+
+        InputStream stream = new PartInputStream(this, policy);
+
+        StreamMonitor.opened(this, stream);
+
+        return stream;
+    }
+
+    /**
+     * Writes the entire MIME part to the given stream as
+     * {@link #serialize(SerializationPolicy)} does, and returns the number
+     * of bytes written.
+     */
+    public long writeTo(OutputStream out, SerializationPolicy policy)
+        throws PantomimeException {
+
+        PartInputStream stream = (PartInputStream)serialize(policy);
+
+        try {
+            return stream.writeTo(out);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    /**
+     * Returns an InputStream of the entire MIME part, the same as
+     * {@link #serialize()}, but new bodies that need encoding are encoded
+     * ahead on the given executor while the parts before them are read.
+     * <p>
+     * Each body is held in memory up to a point and in a temporary file
+     * past that, until it is read or the stream is closed. The part must
+     * not be changed until the stream is closed.
+     */
+    public InputStream serialize(ExecutorService executor)
+        throws PantomimeException {
+
+        InputStream stream = new PartInputStream(this, executor);
+
+        StreamMonitor.opened(this, stream);
+
+        return stream;
+    }
+
+    /**
+     * Writes the entire MIME part to the given stream, and returns the
+     * number of bytes written.
+     * <p>
+     * Nothing is buffered along the way beyond what encoding needs. Parts
+     * that have not changed since they were read from a file go out as
+     * they are there.
+     */
+    public long writeTo(OutputStream out) throws PantomimeException {
+
+        PartInputStream stream = (PartInputStream)serialize();
+
+        try {
+            return stream.writeTo(out);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    /**
+     * Writes the entire MIME part to the given stream, encoding new bodies
+     * ahead on the given executor as {@link #serialize(ExecutorService)}
+     * does, and returns the number of bytes written.
+     */
+    public long writeTo(OutputStream out, ExecutorService executor)
+        throws PantomimeException {
+
+        PartInputStream stream = (PartInputStream)serialize(executor);
+
+        try {
+            return stream.writeTo(out);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    /**
+     * Writes the entire MIME part to the given channel, e.g., a socket
+     * channel, and returns the number of bytes written.
+     * <p>
+     * Parts that have not changed since they were read from a file are
+     * transferred by the file channel.
+     */
+    public long writeTo(WritableByteChannel target)
+        throws PantomimeException {
+
+        PartInputStream stream = (PartInputStream)serialize();
+
+        try {
+            return stream.writeTo(target);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    /**
+     * Writes the entire MIME part to the given channel as
+     * {@link #serialize(SerializationPolicy)} does, and returns the number
+     * of bytes written.
+     */
+    public long writeTo(WritableByteChannel target, SerializationPolicy policy)
+        throws PantomimeException {
+
+        PartInputStream stream = (PartInputStream)serialize(policy);
+
+        try {
+            return stream.writeTo(target);
+        } catch (IOException e) {
+            throw new PantomimeException(e);
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+    }
+
+    /**
+     * Keeps the new bodies of this part and the parts below it, once
+     * encoded for transport, in the given cache, or in none if null. Later
+     * serializations copy them from there. Parts added later on are not
+     * covered.
+     *
+     * @see SinglePart#setEncodedBodyCache
+     */
+    public void setEncodedBodyCache(EncodedBodyCache cache)
+        throws PantomimeException {
+
+        if ( ! isMultipart() ) {
+            single.setEncodedBodyCache(cache);
+            return;
+        }
+
+        for ( Part subPart : multi.getSubParts() ) {
+            subPart.setEncodedBodyCache(cache);
+        }
+    }
+
     /**
      * Returns true if there is a header with the given name.
      */
@@ -474,9 +705,9 @@ public class Part {
 
         ArrayList<Header> asList = new ArrayList<Header>();
 
-        for ( String name : headers.keySet() ) {
+        for ( List<Header> headerList : headers.values() ) {
 
-            asList.addAll(headers.get(name));
+            asList.addAll(headerList);
 
         }
 
@@ -500,8 +731,10 @@ public class Part {
             return null;
         }
 
-        if ( headers.get(headerName) != null ) {
-            return headers.get(headerName);
+        List<Header> headerList = headers.get(headerName);
+
+        if ( headerList != null ) {
+            return headerList;
         } else {
             return new ArrayList<Header>();
         }
@@ -569,23 +802,21 @@ public class Part {
 
     /**
      * Returns the size of the whole MIME part encoded for trasnport.
+     * <p>
+     * A modified part is sized from its headers and the sizes of its
+     * bodies. Nothing is encoded.
      */
     public long getTransferEncodedSize() throws PantomimeException {
 
         if ( isModified ) {
 
-            InputStream stream = null;
-
             try {
-                stream = serialize();
 
-                return StreamUtility.count(stream);
+                return countSerializedSize();
 
             } catch (IOException e) {
                 log.error("Unable to get size of stream", e);
                 return -1;
-            } finally {
-                StreamUtility.close(this, stream);
             }
         } else if ( source != null ) {
             return source.getTransferEncodedSize(path);
@@ -595,6 +826,172 @@ public class Part {
 
     }
 
+    /**
+     * (Internal Use.) Returns where the part was in its source.
+     */
+    MimePath getSourcePath() {
+        return sourcePath;
+    }
+
+    /**
+     * (Internal Use.) Returns true if the whole part, headers and all, can
+     * go out exactly as it is in its source.
+     */
+    boolean isUnchanged() throws PantomimeException {
+
+        if ( isModified || ( ! isBodyUnchanged() ) ) {
+            return false;
+        }
+
+        for ( Header header : getHeaderList() ) {
+
+            if ( header.getRawHeader() == null ) {
+                return false;
+            }
+        }
+
+        return true;
+    }
+
+    /**
+     * (Internal Use.) Returns true if the body of the part can go out
+     * exactly as it is in its source.
+     */
+    boolean isBodyUnchanged() throws PantomimeException {
+
+        if ( isBodyModified || ( sourcePath == null ) ||
+            ( ! ( source instanceof StreamMessageSource ) ) ||
+            ( ! ((StreamMessageSource)source).isRandomAccess() ) ) {
+            return false;
+        }
+
+        if ( ! isMultipart() ) {
+            return ! single.hasNewBody();
+        }
+
+        return multi.isUnchanged();
+    }
+
+    /**
+     * (Internal Use.) Returns the number of bytes {@link #serialize} comes
+     * to.
+     */
+    long countSerializedSize() throws IOException, PantomimeException {
+
+        long size;
+        List<Part> subParts;
+        String preamble;
+        String epilogue;
+        long boundary;
+
+        if ( isUnchanged() ) {
+            return ((StreamMessageSource)source).getSourceSize(sourcePath,
+                true);
+        }
+
+        size = PartInputStream.getHeaderBytes(this).length;
+
+        if ( isBodyUnchanged() ) {
+            return size + ((StreamMessageSource)source).getSourceSize(
+                sourcePath, false);
+        }
+
+        if ( ! isMultipart() ) {
+
+            long bodySize = single.getSerializedBodySize();
+
+            return ( bodySize < 0 ) ? -1 : size + bodySize;
+        }
+
+        if ( multi.getSubPartCount() == 0 ) {
+            return size;
+        }
+
+        subParts = multi.getSubParts();
+        preamble = multi.getPreamble();
+        epilogue = multi.getEpilogue();
+        boundary = multi.getBoundary().getBytes().length;
+
+        if ( ( preamble != null ) && ( preamble.length() > 0 ) ) {
+            size += preamble.getBytes().length + 4;
+        }
+
+        for ( Part subPart : subParts ) {
+
+            long subPartSize = subPart.countSerializedSize();
+
+            if ( subPartSize < 0 ) {
+                return -1;
+            }
+
+            /* --boundary CRLF, the part, CRLF CRLF */
+            size += 2 + boundary + 2 + subPartSize + 4;
+        }
+
+        /* --boundary-- */
+        size += 2 + boundary + 2;
+
+        if ( ( epilogue != null ) && ( epilogue.length() > 0 ) ) {
+            size += 4 + epilogue.getBytes().length + 2;
+        }
+
+        return size;
+    }
+
+    /**
+     * (Internal Use.) Makes the given, fresh part a copy of this one at the
+     * given path. The copy stands on its own, with no source, and its
+     * bodies already encoded for transport. A body this part already holds
+     * encoded is shared rather than encoded again.
+     */
+    void copyTo(Part copy, MimePath path) throws PantomimeException {
+
+        for ( Map.Entry<String, List<Header>> entry : headers.entrySet() ) {
+
+            List<Header> headerList = new ArrayList<Header>();
+
+            for ( Header header : entry.getValue() ) {
+                headerList.add(header.copy());
+            }
+
+            copy.headers.put(entry.getKey(), headerList);
+        }
+
+        copy.invalidHeaders.addAll(invalidHeaders);
+
+        if ( isMultipart() ) {
+
+            List<Part> subParts = multi.getSubParts();
+            List<Part> subPartCopies = new ArrayList<Part>();
+
+            copy.muster(null, path, multi.getBoundary());
+
+            for ( int index = 0; index < subParts.size(); index++ ) {
+
+                Part subPart = subParts.get(index);
+                Part subPartCopy = ( subPart instanceof Attachment ) ?
+                    new Attachment() : new Part();
+
+                subPart.copyTo(subPartCopy, new MimePath(path, index));
+                subPartCopies.add(subPartCopy);
+            }
+
+            copy.multi.newPreamble = multi.getPreamble();
+            copy.multi.newEpilogue = multi.getEpilogue();
+            copy.multi.proxiedSubParts = subPartCopies;
+
+        } else {
+
+            copy.muster(null, path);
+
+            copy.single.setEncodedBody(( single.newEncodedBody != null ) ?
+                single.newEncodedBody : EncodedBody.encode(this));
+        }
+
+        copy.markModified();
+        copy.isBodyModified = true;
+    }
+
     /**
      * Sets the Content-Encoding header for this MIME part.
      */
@@ -625,16 +1022,34 @@ public class Part {
         setHeader(header);
     }
 
+    /**
+     * Returns a new, empty header of the kind the given folded name calls
+     * for.
+     */
+    private static Header newHeader(String folded) {
+
+        if ( folded.equals("content-disposition") ) {
+            return new ContentDisposition ();
+        } else if ( folded.equals("content-type") ) {
+            return new ContentType ();
+        } else if ( folded.equals("to") || folded.equals("cc") ||
+            folded.equals("bcc") ) {
+            return new AddressListHeader ();
+        } else {
+            return new Header ();
+        }
+    }
+
     private void _addHeader(Header header) {
         List<Header> newHeaderList;
 
-        isModified = true;
+        markModified();
 
-        for ( String name : headers.keySet() ) {
-            if ( name.trim().equalsIgnoreCase(header.getName()) ) {
-                headers.get(name).add(header);
-                return;
-            }
+        newHeaderList = headers.get(header.getName());
+
+        if ( newHeaderList != null ) {
+            newHeaderList.add(header);
+            return;
         }
 
         newHeaderList = new ArrayList<Header>();
@@ -655,7 +1070,7 @@ public class Part {
      * Add a new header.
      */
     public void addHeader(String headerName, String headerValue) {
-        Header newHeader = new Header();
+        Header newHeader = newHeader(HeaderName.fold(headerName.trim()));
         newHeader.setName(headerName);
         newHeader.setValue(headerValue);
         _addHeader(newHeader);
@@ -673,8 +1088,8 @@ public class Part {
      */
     public void removeHeader(String headerName) {
 
-        headers.remove(headerName.trim().toLowerCase());
-        isModified = true;
+        headers.remove(headerName.trim());
+        markModified();
 
     }
 
@@ -775,7 +1190,7 @@ public class Part {
 
         multi.setSubParts(newSubParts);
 
-        isModified = true;
+        markModified();
     }
 
     protected Part searchForInlinePart(String type)
@@ -851,48 +1266,16 @@ public class Part {
 
     static ContentTransferEncoding determineTransferEncoding(InputStream stream, String charset) {
 
-        ContentTransferEncoding encoding = SEVEN_BIT;
-
         try {
 
-            int bytesRead = 0;
-            byte[] data = new byte[6*3000];
-            ContentTransferEncoding newEncoding = SEVEN_BIT;
-
-            while ( ( bytesRead = stream.read(data) ) > 0 ) {
-
-                String s;
-                char[] chars;
-
-                try {
-
-                    if ( charset != null ) {
-                        s = new String(data, 0, bytesRead, charset);
-                    } else {
-                        s = new String(data, 0, bytesRead);
-                    }
-                } catch (UnsupportedEncodingException e) {
-                    s = new String(data, 0, bytesRead);
-                }
-
-                newEncoding = determineTransferEncoding(s);
-
-                if ( newEncoding == BASE64 ) {
-                    encoding = newEncoding;
-                    break;
-                }
-
-                if ( newEncoding == QUOTED_PRINTABLE ) {
-                    encoding = newEncoding;
-                }
-            }
+            return TransferEncodingClassifier.classify(stream, charset);
 
         } catch (IOException e) {
             log.error("Unable to read whole stream to determine transfer " +
                 "encoding.");
         }
 
-        return encoding;
+        return SEVEN_BIT;
     }
  
     private static ContentTransferEncoding determineTransferEncoding(String s) {
@@ -947,6 +1330,21 @@ public class Part {
         private String newContent = null;
         private InputStreamSource newContentSource = null;
 
+        /* transfer encoding of the new content, until the content changes */
+        private ContentTransferEncoding newContentEncoding = null;
+
+        /* size of the new content encoded for transport, or -1 */
+        private long newContentSize = -1;
+
+        /* whether the new content can go out as 8bit, or null if not known */
+        private Boolean newContentEightBitSafe = null;
+
+        /* new content already encoded for transport, shared between copies */
+        private EncodedBody newEncodedBody = null;
+
+        private EncodedBodyCache cache = null;
+        private EncodedBodyCache.Entry cachedBody = null;
+
         private SinglePart() { }
 
         /**
@@ -984,34 +1382,116 @@ public class Part {
 
         }
 
+        /**
+         * Returns a Reader of the body, decoded in the character set of
+         * its Content-Type. Close it when done.
+         */
+        public Reader getBodyAsReader() throws PantomimeException {
+
+            InputStream stream = getBody();
+
+            if ( stream == null ) {
+                return null;
+            }
+
+            return new CharsetDecodeReader(stream, getCharset());
+        }
+
         /**
          * Returns an body as a String. Note that this method is not
          * suitable for large message since this method will load the
          * entire body into memory.
          */
         public String getBodyAsString() throws PantomimeException {
-            ContentType type = getContentType();
-            InputStream stream = getBody();
+            return getBodyAsString(Integer.MAX_VALUE);
+        }
 
-            try {
+        /**
+         * Returns no more than the given number of characters from the
+         * start of the body as a String.
+         */
+        public String getBodyAsString(int maxChars)
+            throws PantomimeException {
 
-                if ( type != null ) {
-                    return StreamUtility.asString(stream, type.getCharset());
-                } else {
-                    return StreamUtility.asString(stream, null);
-                }
+            Reader reader = getBodyAsReader();
 
+            try {
+
+                return StreamUtility.asString(reader, maxChars);
 
             } catch (IOException e) {
                 log.error("Unable to stringify.", e);
                 return "";
             } finally {
 
-                StreamUtility.close(this, stream);
+                if ( reader != null ) {
+
+                    try {
+                        reader.close();
+                    } catch (IOException e) {
+                        log.error("Unable to close reader.", e);
+                    }
+                }
 
             }
         }
 
+        /**
+         * Decodes the body into the given file at its current position,
+         * moves the position past it, and returns the number of bytes
+         * written.
+         * <p>
+         * An unchanged Base64 body of a message loaded from a file is
+         * decoded straight from the file on up to the given number of
+         * threads. Any other body is copied from {@link #getBody()}.
+         */
+        long decodeTo(FileChannel target, int parallelism)
+            throws PantomimeException {
+
+            InputStream stream = null;
+            long position;
+            long size = 0;
+
+            try {
+
+                position = target.position();
+
+                if ( ( ! hasNewBody() ) &&
+                    ( source instanceof FileMessageSource ) &&
+                    ( getContentTransferEncoding() == BASE64 ) ) {
+
+                    size = ((FileMessageSource)source).decodeBase64Body(path,
+                        target, position, parallelism);
+
+                } else {
+
+                    byte[] buffer = new byte[65536];
+                    int bytesRead;
+
+                    stream = getBody();
+
+                    while ( ( stream != null ) &&
+                        ( ( bytesRead = stream.read(buffer) ) > 0 ) ) {
+
+                        ByteBuffer data = ByteBuffer.wrap(buffer, 0, bytesRead);
+
+                        while ( data.hasRemaining() ) {
+                            size += target.write(data, position + size);
+                        }
+                    }
+                }
+
+                target.position(position + size);
+
+            } catch (IOException e) {
+                throw new PantomimeException(e);
+            } finally {
+                StreamUtility.close(this, stream);
+            }
+
+            return size;
+        }
+
         private String getCharset() {
             ContentType type = getContentType();
             String charset = null;
@@ -1021,8 +1501,119 @@ public class Part {
             return charset;
         }
 
+        /*
+         * Content read to the end along the way is sized at the same time.
+         */
         private ContentTransferEncoding determineTransferEncoding(InputStream stream) {
-            return Part.determineTransferEncoding(stream, getCharset());
+
+            TransferEncodingClassifier classifier =
+                new TransferEncodingClassifier(getCharset());
+
+            try {
+                classifier.read(stream);
+            } catch (IOException e) {
+                log.error("Unable to read whole stream to determine transfer " +
+                    "encoding.");
+                return SEVEN_BIT;
+            }
+
+            newContentSize = classifier.getTransferEncodedSize();
+
+            return classifier.finish();
+        }
+
+        /**
+         * Returns the transfer encoding of the new body. This is worked out
+         * the first time it is asked for, by reading the body through once,
+         * and kept until the body changes.
+         */
+        private ContentTransferEncoding getNewBodyEncoding()
+            throws PantomimeException {
+
+            InputStream stream = null;
+
+            if ( newContentEncoding == null ) {
+
+                try {
+                    stream = single.getNewBody();
+                    newContentEncoding = determineTransferEncoding(stream);
+                } finally {
+                    StreamUtility.close(this, stream);
+                }
+            }
+
+            return newContentEncoding;
+        }
+
+        /**
+         * (Internal Use.) Returns true if the body is new and gets encoded
+         * on the way out.
+         */
+        boolean isEncodedOnSerialize() throws PantomimeException {
+
+            ContentTransferEncoding encoding;
+
+            if ( ( ! hasNewBody() ) || ( newEncodedBody != null ) ||
+                ( ( cache != null ) && cache.contains(cachedBody) ) ) {
+                return false;
+            }
+
+            encoding = getNewBodyEncoding();
+
+            return ( encoding == BASE64 ) || ( encoding == QUOTED_PRINTABLE );
+        }
+
+        /**
+         * (Internal Use.) Returns the transfer encoding the body goes out
+         * in under the given policy, if the policy lets a new body go out
+         * as it is rather than encoded, or else null.
+         */
+        ContentTransferEncoding getSerializedEncoding(
+            SerializationPolicy policy) throws PantomimeException {
+
+            ContentTransferEncoding encoding;
+
+            if ( ( ! policy.isEightBitAllowed() ) || ( ! hasNewBody() ) ||
+                ( newEncodedBody != null ) ) {
+                return null;
+            }
+
+            encoding = getNewBodyEncoding();
+
+            if ( ( encoding != BASE64 ) && ( encoding != QUOTED_PRINTABLE ) ) {
+                return null;
+            }
+
+            if ( isNewBodyEightBitSafe() ) {
+                return EIGHT_BIT;
+            }
+
+            return policy.isBinaryAllowed() ? BINARY : null;
+        }
+
+        /**
+         * Returns true if the new body can go out as 8bit. This is worked
+         * out when first needed, and kept until the body changes.
+         */
+        private boolean isNewBodyEightBitSafe() throws PantomimeException {
+
+            InputStream stream = null;
+
+            if ( newContentEightBitSafe == null ) {
+
+                try {
+                    stream = getNewBody();
+                    newContentEightBitSafe =
+                        TransferEncodingClassifier.isEightBitSafe(stream);
+                } catch (IOException e) {
+                    log.error("Unable to read new body.", e);
+                    return false;
+                } finally {
+                    StreamUtility.close(this, stream);
+                }
+            }
+
+            return newContentEightBitSafe;
         }
 
         /**
@@ -1036,34 +1627,37 @@ public class Part {
         public InputStream getTransferEncodedBody()
             throws PantomimeException {
 
-            if ( hasNewBody() ) {
+            if ( newEncodedBody != null ) {
 
-                ContentTransferEncoding encoding;
-                InputStream stream = null;
+                InputStream stream = newEncodedBody.getInputStream();
 
-                try {
-                    stream = single.getNewBody();
-                    encoding = determineTransferEncoding(stream);
-                } finally {
-                    StreamUtility.close(this, stream);
-                }
+                StreamMonitor.opened(this, stream);
 
-                if ( encoding == BASE64 ) {
-                    stream = new Base64EncodeInputStream(single.getNewBody());
+                return stream;
 
-                    StreamMonitor.opened(this, stream);
+            } else if ( hasNewBody() ) {
 
-                    return stream;
+                InputStream stream;
 
-                } else if ( encoding == QUOTED_PRINTABLE ) {
-                    stream = new QuotedPrintableEncodeInputStream(single.getNewBody());
-                    StreamMonitor.opened(this, stream);
+                if ( cache == null ) {
+                    return encodeNewBody();
+                }
 
-                    return stream;
-                } else {
-                    return single.getNewBody();
+                stream = cache.open(cachedBody);
+
+                if ( stream == null ) {
+
+                    if ( cachedBody == null ) {
+                        cachedBody = new EncodedBodyCache.Entry();
+                    }
 
+                    stream = cache.capture(encodeNewBody(), cachedBody);
                 }
+
+                StreamMonitor.opened(this, stream);
+
+                return stream;
+
             } else if ( source != null ) {
 
                 /* Here, we're expecting getBody() to return the transfer
@@ -1080,22 +1674,55 @@ public class Part {
 
         }
 
+        /**
+         * Returns the new body encoded for transport.
+         */
+        private InputStream encodeNewBody() throws PantomimeException {
+
+            ContentTransferEncoding encoding = getNewBodyEncoding();
+            InputStream stream;
+
+            if ( encoding == BASE64 ) {
+                stream = new Base64EncodeInputStream(single.getNewBody());
+
+                StreamMonitor.opened(this, stream);
+
+                return stream;
+
+            } else if ( encoding == QUOTED_PRINTABLE ) {
+                stream = new QuotedPrintableEncodeInputStream(single.getNewBody());
+                StreamMonitor.opened(this, stream);
+
+                return stream;
+            } else {
+                return single.getNewBody();
+
+            }
+        }
+
         /**
          * Returns the size of the body encoded for trasnport.
+         * <p>
+         * The size of new content is worked out without encoding it, and
+         * kept until the content changes.
          */
         public long getTransferEncodedBodySize() throws PantomimeException {
             if ( hasNewBody() ) {
-                InputStream stream =  null;
 
-                try {
-                    stream = getTransferEncodedBody();
-                    return StreamUtility.count(stream);
-                } catch (IOException e) {
-                    log.error("Unable to get size of stream", e);
-                    return -1;
-                } finally {
-                    StreamUtility.close(this, stream);
+                ContentTransferEncoding encoding = getNewBodyEncoding();
+
+                if ( newContentSize < 0 ) {
+
+                    try {
+                        newContentSize = countNewBody(encoding);
+                    } catch (IOException e) {
+                        log.error("Unable to get size of stream", e);
+                        return -1;
+                    }
                 }
+
+                return newContentSize;
+
             } else if ( source != null ) {
                 return source.getTransferEncodedBodySize(path);
             }
@@ -1105,6 +1732,81 @@ public class Part {
         }
 
 
+        /**
+         * Returns the size of the new content encoded as given. Base64 is
+         * worked out from the length alone. Quoted Printable takes a
+         * counting pass.
+         */
+        private long countNewBody(ContentTransferEncoding encoding)
+            throws IOException, PantomimeException {
+
+            InputStream stream = null;
+
+            if ( ( newContentFromFile != null ) &&
+                ( encoding != QUOTED_PRINTABLE ) ) {
+
+                long length = newContentFromFile.length();
+
+                return ( encoding == BASE64 ) ?
+                    Base64EncodeInputStream.encodedLength(length) : length;
+            }
+
+            try {
+
+                stream = getNewBody();
+
+                if ( encoding == QUOTED_PRINTABLE ) {
+
+                    QuotedPrintableEncoder encoder =
+                        new QuotedPrintableEncoder(false);
+                    byte[] buffer = new byte[16384];
+                    long size = 0;
+                    int bytesRead;
+
+                    while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
+                        size += encoder.count(buffer, 0, bytesRead);
+                    }
+
+                    return size;
+
+                } else if ( encoding == BASE64 ) {
+
+                    return Base64EncodeInputStream.encodedLength(
+                        StreamUtility.count(stream));
+
+                } else {
+
+                    return StreamUtility.count(stream);
+                }
+
+            } finally {
+                StreamUtility.close(this, stream);
+            }
+        }
+
+        /**
+         * Returns the number of bytes of body the part serializes to.
+         */
+        long getSerializedBodySize() throws IOException, PantomimeException {
+
+            InputStream stream = null;
+
+            if ( hasNewBody() ) {
+                return getTransferEncodedBodySize();
+            }
+
+            if ( source == null ) {
+                return 0;
+            }
+
+            try {
+                stream = source.getBody(path);
+                return StreamUtility.countAsRead(stream);
+            } finally {
+                StreamUtility.close(this, stream);
+            }
+        }
+
         /**
          * Returns true if this MIME part is text/plain content.
          */
@@ -1198,6 +1900,57 @@ public class Part {
             newContent = null;
             newContentFromFile = null;
             newContentSource = null;
+            resetEncodedState();
+        }
+
+        /**
+         * Keeps the new body, once encoded for transport, in the given
+         * cache, or in none if null.
+         */
+        public void setEncodedBodyCache(EncodedBodyCache cache) {
+
+            dropCachedBody();
+
+            this.cache = cache;
+        }
+
+        /**
+         * Forgets all that was worked out from the new body, which is
+         * about to change.
+         */
+        private void resetEncodedState() {
+
+            newContentEncoding = null;
+            newContentSize = -1;
+            newContentEightBitSafe = null;
+            newEncodedBody = null;
+            dropCachedBody();
+        }
+
+        private void dropCachedBody() {
+
+            if ( cache != null ) {
+                cache.remove(cachedBody);
+            }
+
+            cachedBody = null;
+        }
+
+        /**
+         * Sets the body to one already encoded for transport. The
+         * Content-Transfer-Encoding header is left as it is.
+         */
+        void setEncodedBody(EncodedBody encodedBody) {
+
+            clearNewBody();
+
+            if ( encodedBody == null ) {
+                return;
+            }
+
+            newEncodedBody = encodedBody;
+            newContentEncoding = encodedBody.getEncoding();
+            newContentSize = encodedBody.size();
         }
 
         /**
@@ -1216,6 +1969,7 @@ public class Part {
             newContent = null;
             newContentFromFile = null;
             newContentSource = contentSource;
+            resetEncodedState();
             setContentType(type, charset);
 
             try {
@@ -1230,12 +1984,17 @@ public class Part {
 
             setTransferEncoding(encoding);
 
-            isModified = true;
+            markModified();
+            isBodyModified = true;
 
         }
 
         private void setTransferEncoding(ContentTransferEncoding encoding) {
-            Header header = new Header();
+            Header header;
+
+            newContentEncoding = encoding;
+
+            header = new Header();
             header.setName("Content-Transfer-Encoding");
             header.setValue(encoding.getText());
             setHeader(header);
@@ -1254,6 +2013,7 @@ public class Part {
             newContent = null;
             newContentSource = null;
             newContentFromFile = content;
+            resetEncodedState();
             setContentType(type, charset);
 
 
@@ -1274,7 +2034,8 @@ public class Part {
                 StreamUtility.close(this, stream);
             }
 
-            isModified = true;
+            markModified();
+            isBodyModified = true;
         }
 
         /**
@@ -1293,17 +2054,21 @@ public class Part {
             newContentFromFile = null;
             newContentSource = null;
             newContent = content;
+            resetEncodedState();
             setContentType(type, charset);
 
             encoding = Part.determineTransferEncoding(content);
             setTransferEncoding(encoding);
 
-            isModified = true;
+            markModified();
+            isBodyModified = true;
         }
 
         void saveRfc822Message(final InputStream stream)
             throws PantomimeException {
 
+            resetEncodedState();
+
             newContentSource = new InputStreamSource() {
                 public InputStream getInputStream() throws PantomimeException {
 
@@ -1350,6 +2115,8 @@ public class Part {
 
             } else if ( newContentSource != null ) {
                 stream = newContentSource.getInputStream();
+            } else if ( newEncodedBody != null ) {
+                stream = newEncodedBody.getDecodedInputStream();
             } else {
                 log.info("Invalid new content source.");
             }
@@ -1367,7 +2134,8 @@ public class Part {
 
             return ( newContent != null ) ||
                 ( newContentFromFile != null ) ||
-                ( newContentSource != null );
+                ( newContentSource != null ) ||
+                ( newEncodedBody != null );
         }
 
         /**
@@ -1499,11 +2267,36 @@ public class Part {
 
         }
 
+        /**
+         * Returns true if nothing in the body of this multipart has changed
+         * since it was read from its source.
+         */
+        private boolean isUnchanged() throws PantomimeException {
+
+            if ( ( newPreamble != null ) || ( newEpilogue != null ) ) {
+                return false;
+            }
+
+            if ( proxiedSubParts == null ) {
+                return true;
+            }
+
+            for ( Part subPart : proxiedSubParts ) {
+
+                if ( ! subPart.isUnchanged() ) {
+                    return false;
+                }
+            }
+
+            return true;
+        }
+
         /**
          * Sets the preamble.
          */
         public void setPreamble(String preamble) {
             newPreamble = preamble;
+            markModified();
         }
 
         /**
@@ -1511,6 +2304,7 @@ public class Part {
          */
         public void setEpilogue(String epilogue) {
             newEpilogue = epilogue;
+            markModified();
         }
 
         /**
@@ -1705,6 +2499,8 @@ public class Part {
         private void setSubParts(List<Part> parts) {
 
             proxiedSubParts = parts;
+            isBodyModified = true;
+            lastChange = nextChange();
         }
 
         /**
@@ -1759,6 +2555,9 @@ public class Part {
 
             boundary = createBoundary();
 
+            /* the source body is framed with the old boundary */
+            isBodyModified = true;
+
             setHeader("Content-Type", "multipart/" + multipartType +
                 "; boundary=\"" + boundary + "\"");
             return boundary;
@@ -1790,7 +2589,8 @@ public class Part {
                 }
 
             }
-            isModified = true;
+            markModified();
+            isBodyModified = true;
 
             return removed;
         }
@@ -1817,7 +2617,8 @@ public class Part {
 
             muster(null, originalPath);
             subParts.add(index, part);
-            isModified = true;
+            markModified();
+            isBodyModified = true;
 
             return part;
         }
@@ -1852,7 +2653,8 @@ public class Part {
 
             subParts.add(part);
 
-            isModified = true;
+            markModified();
+            isBodyModified = true;
 
             return part;
         }
@@ -2002,7 +2804,8 @@ public class Part {
 
             subParts.add(attachment);
 
-            isModified = true;
+            markModified();
+            isBodyModified = true;
 
 
         }
@@ -1,37 +1,209 @@
 package org.blackmist.pantomime;
 
+import java.io.FileOutputStream;
 import java.io.InputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
-import java.util.LinkedList;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import java.util.IdentityHashMap;
 import java.util.List;
+import java.util.Map;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.RejectedExecutionException;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+/**
+ * Serializes a part, a buffer at a time.
+ * <p>
+ * Headers, boundaries, the preamble and the epilogue are rendered into a
+ * byte array. Bodies and sub-parts are read in bulk straight into the
+ * caller's array. A body is read in bulk until that stops giving bytes,
+ * and finished off with read(), since some part streams stop one byte
+ * short in bulk reads at the very end. The bytes are the same as reading
+ * the body with read() alone.
+ * <p>
+ * A part that has not changed since it was read from a file or a blob
+ * goes out exactly as it is there, headers and all. A part whose headers
+ * changed but whose body did not has its headers rendered and its body
+ * copied. Copying to a channel from a file uses
+ * {@link java.nio.channels.FileChannel#transferTo}.
+ * <p>
+ * Given an executor, new bodies that need encoding are all handed to it
+ * up front, and encoded into an {@link EncodedBodyBuffer} each while the
+ * parts before them are read.
+ */
 class PartInputStream extends InputStream {
 
     private static Logger log =
         LoggerFactory.getLogger(PartInputStream.class.getName());
 
+    private static final byte[] CRLF = { 13, 10 };
+    private static final byte[] DASHES = { 45, 45 };
+
     private Part part;
     private List<Part> subParts = null;
     private InputStream partStream;
     private InputStream content = null;
+    private boolean contentTail = false;
     private int partIndex = 0;
     private boolean initialized = false;
-    private LinkedList<Byte> buffer;
+    private boolean started = false;
     private boolean done = false;
     private boolean donePreamble = false;
+    private boolean includeHeaders = true;
+
+    /* the rest comes straight from the source, headers too if rawHeaders */
+    private boolean raw = false;
+    private boolean rawHeaders = false;
+
+    /* headers, boundaries, preamble and epilogue waiting to go out */
+    private byte[] buffer = new byte[1024];
+    private int bufferPosition = 0;
+    private int bufferLength = 0;
+
+    /* bodies being encoded ahead, shared with the sub-part streams */
+    private Map<Part, EncodedBodyBuffer> encodedAhead = null;
+    private boolean ownsEncodedAhead = false;
+
+    /* what the transport can carry, and what the body goes out as */
+    private SerializationPolicy policy = SerializationPolicy.SEVEN_BIT;
+    private ContentTransferEncoding unencoded = null;
+
+    private byte[] single = new byte[1];
 
     PartInputStream(Part part) {
         this.part = part;
     }
 
-    private void serializeHeaders() throws PantomimeException {
+    /**
+     * With includeHeaders off, only the body of the part is streamed,
+     * e.g., for a view that carries the headers elsewhere.
+     */
+    PartInputStream(Part part, boolean includeHeaders) {
+        this.part = part;
+        this.includeHeaders = includeHeaders;
+    }
+
+    /**
+     * Lets new bodies go out unencoded where the given policy allows.
+     */
+    PartInputStream(Part part, SerializationPolicy policy) {
+        this.part = part;
+        this.policy = policy;
+    }
+
+    /**
+     * Encodes new bodies ahead on the given executor.
+     */
+    PartInputStream(Part part, ExecutorService executor)
+        throws PantomimeException {
+
+        this.part = part;
+        this.encodedAhead = new IdentityHashMap<Part, EncodedBodyBuffer>();
+        this.ownsEncodedAhead = true;
+
+        encodeAhead(part, executor);
+    }
+
+    private PartInputStream(Part part,
+        Map<Part, EncodedBodyBuffer> encodedAhead,
+        SerializationPolicy policy) {
+
+        this.part = part;
+        this.encodedAhead = encodedAhead;
+        this.policy = policy;
+    }
+
+    private void encodeAhead(Part part, ExecutorService executor)
+        throws PantomimeException {
+
+        EncodedBodyBuffer buffer;
+
+        if ( part.isBodyUnchanged() ) {
+            /* goes out as it is in the source */
+            return;
+        }
+
+        if ( part.isMultipart() ) {
+
+            for ( Part subPart : part.asMultipart().getSubParts() ) {
+                encodeAhead(subPart, executor);
+            }
+
+            return;
+        }
+
+        if ( ! part.asSinglePart().isEncodedOnSerialize() ) {
+            return;
+        }
+
+        buffer = new EncodedBodyBuffer(part);
+
+        encodedAhead.put(part, buffer);
+
+        try {
+            executor.execute(buffer);
+        } catch (RejectedExecutionException e) {
+            log.debug("Executor is full. Body will be encoded in turn.");
+        }
+    }
+
+    private void releaseEncodedAhead() {
+
+        if ( ! ownsEncodedAhead ) {
+            return;
+        }
+
+        for ( EncodedBodyBuffer buffer : encodedAhead.values() ) {
+            buffer.release();
+        }
+
+        encodedAhead = null;
+        ownsEncodedAhead = false;
+    }
+
+    /**
+     * Returns the header block of the given part, as serialized.
+     */
+    static byte[] getHeaderBytes(Part part) throws PantomimeException {
+        return getHeaderBytes(part, null);
+    }
+
+    /**
+     * Returns the header block of the given part, with the
+     * Content-Transfer-Encoding given if not null.
+     */
+    private static byte[] getHeaderBytes(Part part,
+        ContentTransferEncoding encoding) throws PantomimeException {
+
         StringBuilder builder = new StringBuilder();
+
         for ( Header header : part.getHeaderList() ) {
 
+            String raw = header.getRawHeader();
+
+            if ( ( encoding != null ) && header.getName().trim()
+                .equalsIgnoreCase("Content-Transfer-Encoding") ) {
+
+                builder.append(header.getName())
+                    .append(": ")
+                    .append(encoding.getText())
+                    .append("\r\n");
+                continue;
+            }
+
+            /* untouched headers from the source go out as they came in */
+            if ( raw != null ) {
+                builder.append(raw).append("\r\n");
+                continue;
+            }
+
             builder.append(header.getName())
                 .append(": ")
                 .append(header.getTransferEncodedValue())
@@ -40,18 +212,61 @@ class PartInputStream extends InputStream {
 
         builder.append("\r\n");
 
-        buffer = new LinkedList<Byte>();
+        return builder.toString().getBytes();
+    }
+
+    private void append(byte[] data) {
+
+        if ( bufferPosition == bufferLength ) {
+            bufferPosition = bufferLength = 0;
+        }
+
+        if ( bufferLength + data.length > buffer.length ) {
+
+            byte[] bigger = new byte[Math.max(buffer.length * 2,
+                bufferLength - bufferPosition + data.length)];
 
-        for ( byte b : builder.toString().getBytes() ) {
-            buffer.add(b);
+            System.arraycopy(buffer, bufferPosition, bigger, 0,
+                bufferLength - bufferPosition);
+
+            bufferLength -= bufferPosition;
+            bufferPosition = 0;
+            buffer = bigger;
         }
 
+        System.arraycopy(data, 0, buffer, bufferLength, data.length);
+
+        bufferLength += data.length;
+    }
+
+    private void serializeHeaders() throws PantomimeException {
+
+        started = true;
+
+        if ( includeHeaders && part.isUnchanged() ) {
+            raw = rawHeaders = true;
+            return;
+        }
+
+        raw = part.isBodyUnchanged();
+
+        if ( ( ! raw ) && ( ! part.isMultipart() ) ) {
+            unencoded = part.asSinglePart().getSerializedEncoding(policy);
+        }
+
+        if ( includeHeaders ) {
+            append(getHeaderBytes(part, unencoded));
+        }
     }
 
     private void init() throws PantomimeException {
 
+        if ( raw ) {
 
-        if ( part.isMultipart() ) {
+            content = ((StreamMessageSource)part.getSource()).getSourceBytes(
+                part.getSourcePath(), rawHeaders);
+
+        } else if ( part.isMultipart() ) {
 
             if ( part.asMultipart().getSubPartCount() > 0 ) {
                 subParts = part.asMultipart().getSubParts();
@@ -59,7 +274,17 @@ class PartInputStream extends InputStream {
 
         } else {
 
-            content = part.asSinglePart().getTransferEncodedBody();
+            EncodedBodyBuffer buffer = ( encodedAhead == null ) ? null :
+                encodedAhead.get(part);
+
+            if ( unencoded != null ) {
+                content = part.asSinglePart().getBody();
+            } else if ( ( buffer != null ) && ( ! buffer.claim() ) ) {
+                content = buffer.getInputStream();
+            } else {
+                /* not started yet, or not encoded ahead at all */
+                content = part.asSinglePart().getTransferEncodedBody();
+            }
 
         }
 
@@ -69,7 +294,7 @@ class PartInputStream extends InputStream {
 
     private void writePreamble() throws PantomimeException {
         String preamble;
-        
+
         if ( donePreamble ) {
             return;
         }
@@ -86,14 +311,9 @@ class PartInputStream extends InputStream {
             return;
         }
 
-        for ( byte b : preamble.getBytes() ) {
-            buffer.add(b);
-        }
-
-        buffer.add((byte)13);
-        buffer.add((byte)10);
-        buffer.add((byte)13);
-        buffer.add((byte)10);
+        append(preamble.getBytes());
+        append(CRLF);
+        append(CRLF);
 
     }
 
@@ -108,33 +328,27 @@ class PartInputStream extends InputStream {
             return;
         }
 
-        buffer.add((byte)13);
-        buffer.add((byte)10);
-        buffer.add((byte)13);
-        buffer.add((byte)10);
-
-        for ( byte b : epilogue.getBytes() ) {
-            buffer.add(b);
-        }
-
-        buffer.add((byte)13);
-        buffer.add((byte)10);
+        append(CRLF);
+        append(CRLF);
+        append(epilogue.getBytes());
+        append(CRLF);
 
     }
 
     private void markSubPartStart() throws PantomimeException {
 
-        buffer.add((byte)45);
-        buffer.add((byte)45);
+        append(DASHES);
+        append(part.asMultipart().getBoundary().getBytes());
+        append(CRLF);
 
-        for ( byte b : part.asMultipart().getBoundary().getBytes() ) {
-            buffer.add(b);
+        if ( ( encodedAhead != null ) ||
+            ( policy != SerializationPolicy.SEVEN_BIT ) ) {
+            partStream = new PartInputStream(subParts.get(partIndex),
+                encodedAhead, policy);
+            StreamMonitor.opened(this, partStream);
+        } else {
+            partStream = subParts.get(partIndex).serialize();
         }
-
-        buffer.add((byte)13);
-        buffer.add((byte)10);
-
-        partStream = subParts.get(partIndex).serialize();
     }
 
     private void markSubPartEnd() throws IOException, PantomimeException {
@@ -142,22 +356,131 @@ class PartInputStream extends InputStream {
         partStream = null;
         partIndex++;
 
-        buffer.add((byte)13);
-        buffer.add((byte)10);
-        buffer.add((byte)13);
-        buffer.add((byte)10);
+        append(CRLF);
+        append(CRLF);
+    }
+
+    /**
+     * Closes the sub-part just serialized, and the multipart after the last
+     * one.
+     */
+    private void endSubPart() throws IOException, PantomimeException {
+
+        markSubPartEnd();
+
+        if ( partIndex >= subParts.size() ) {
+            markMultipartEnd();
+            writeEpilogue();
+        }
+    }
+
+    private void markMultipartEnd() {
+
+        append(DASHES);
+        append(part.asMultipart().getBoundary().getBytes());
+        append(DASHES);
+
+        done = true;
+    }
+
+    /**
+     * Reads from the body, in bulk until that gives nothing, then a byte
+     * at a time.
+     */
+    private int readContent(byte[] b, int off, int len) throws IOException {
+
+        int next;
+
+        if ( ! contentTail ) {
+
+            int bytesRead = content.read(b, off, len);
+
+            if ( bytesRead > 0 ) {
+                return bytesRead;
+            }
+
+            contentTail = true;
+        }
+
+        next = content.read();
+
+        if ( next == -1 ) {
+            return -1;
+        }
+
+        b[off] = (byte)next;
+
+        return 1;
     }
- 
+
+    /**
+     * Reads a serialized byte.
+     */
     public int read() throws IOException {
 
+        if ( read(single, 0, 1) <= 0 ) {
+            return -1;
+        }
+
+        return single[0] & 0xff;
+    }
+
+    /**
+     * Reads up to len serialized bytes into the given array starting at
+     * offset, and returns the bytes read. Like the read() loop it
+     * replaces, it only comes up short at the end.
+     */
+    public int read(byte[] b, int off, int len) throws IOException {
+
+        int total = 0;
+
+        if ( len == 0 ) {
+            return 0;
+        }
+
         try {
 
-            if ( buffer == null ) {
+            if ( ! started ) {
                 serializeHeaders();
             }
 
-            if ( buffer.peek() != null ) {
-                return buffer.poll();
+            while ( total < len ) {
+
+                int bytesRead = readSome(b, off + total, len - total);
+
+                if ( bytesRead < 0 ) {
+                    break;
+                }
+
+                total += bytesRead;
+            }
+
+        } catch (PantomimeException e) {
+            throw new IOException(e);
+        }
+
+        return ( total == 0 ) ? -1 : total;
+    }
+
+    /**
+     * Reads whatever comes next, or returns -1 at the end.
+     */
+    private int readSome(byte[] b, int off, int len)
+        throws IOException, PantomimeException {
+
+        while ( true ) {
+
+            int bytesRead;
+
+            if ( bufferPosition < bufferLength ) {
+
+                int count = Math.min(len, bufferLength - bufferPosition);
+
+                System.arraycopy(buffer, bufferPosition, b, off, count);
+
+                bufferPosition += count;
+
+                return count;
             }
 
             if ( done ) {
@@ -169,11 +492,9 @@ class PartInputStream extends InputStream {
             }
 
             if ( content != null ) {
-                int b = content.read();
-                return b;
+                return readContent(b, off, len);
             }
 
-
             if ( (subParts == null) || (subParts.size() == 0) ) {
                 return -1;
             }
@@ -184,62 +505,141 @@ class PartInputStream extends InputStream {
 
                 markSubPartStart();
 
-                return buffer.poll();
+                continue;
+            }
 
-            } else {
+            bytesRead = partStream.read(b, off, len);
 
-                int b = partStream.read();
+            if ( bytesRead > 0 ) {
+                return bytesRead;
+            }
 
-                if ( b > -1 ) {
-                    return b;
-                }
+            endSubPart();
+        }
+
+    }
+
+    /**
+     * Writes the rest of the serialized part to the given channel, and
+     * returns the number of bytes written. Whatever comes straight from a
+     * file is transferred by the file channel.
+     */
+    long writeTo(WritableByteChannel target) throws IOException {
+        return writeTo(target, null);
+    }
+
+    /**
+     * Writes the rest of the serialized part to the given stream, and
+     * returns the number of bytes written. A file stream is written
+     * through its channel.
+     */
+    long writeTo(OutputStream out) throws IOException {
 
-                markSubPartEnd();
+        if ( out instanceof FileOutputStream ) {
+            return writeTo(((FileOutputStream)out).getChannel(), null);
+        }
+
+        return writeTo(null, out);
+    }
 
-                if ( partIndex >= subParts.size() ) {
-                    markMultipartEnd();
-                    writeEpilogue();
+    /**
+     * Writes to whichever of the channel or the stream is given. Only a
+     * channel can take a transfer from a file.
+     */
+    private long writeTo(WritableByteChannel channel, OutputStream out)
+        throws IOException {
+
+        byte[] data = null;
+        long total = 0;
+
+        try {
+
+            if ( ! started ) {
+                serializeHeaders();
+            }
+
+            while ( true ) {
+
+                int bytesRead;
+
+                if ( ( bufferPosition == bufferLength ) && ( ! done ) ) {
+
+                    if ( raw && ( ! initialized ) && ( channel != null ) &&
+                        ( part.getSource() instanceof FileMessageSource ) ) {
+
+                        total += ((FileMessageSource)part.getSource())
+                            .transferTo(part.getSourcePath(), rawHeaders,
+                            channel);
+
+                        initialized = done = true;
+                        continue;
+                    }
+
+                    if ( partStream instanceof PartInputStream ) {
+
+                        total += ((PartInputStream)partStream)
+                            .writeTo(channel, out);
+
+                        endSubPart();
+                        continue;
+                    }
                 }
 
+                if ( data == null ) {
+                    data = new byte[16384];
+                }
+
+                bytesRead = readSome(data, 0, data.length);
+
+                if ( bytesRead < 0 ) {
+                    break;
+                }
 
-                return buffer.poll();
+                if ( channel != null ) {
+                    write(channel, data, bytesRead);
+                } else {
+                    out.write(data, 0, bytesRead);
+                }
 
+                total += bytesRead;
             }
 
         } catch (PantomimeException e) {
             throw new IOException(e);
         }
 
+        return total;
     }
 
-    private void markMultipartEnd() {
-        buffer.add((byte)45);
-        buffer.add((byte)45);
+    private static void write(WritableByteChannel target, byte[] data,
+        int length) throws IOException {
 
-        for ( byte b2 : part.asMultipart().getBoundary().getBytes() ) {
-            buffer.add(b2);
-        }
-
-        buffer.add((byte)45);
-        buffer.add((byte)45);
+        ByteBuffer buffer = ByteBuffer.wrap(data, 0, length);
 
-        done = true;
+        while ( buffer.hasRemaining() ) {
+            target.write(buffer);
+        }
     }
 
     public void close() throws IOException {
         StreamUtility.close(this, content);
         StreamUtility.close(this, partStream);
+        releaseEncodedAhead();
     }
 
     public void reset() {
+        releaseEncodedAhead();
         subParts = null;
         partStream = null;
         content = null;
+        contentTail = false;
         partIndex = 0;
         initialized = false;
-        buffer = null;
+        started = false;
+        raw = rawHeaders = false;
+        unencoded = null;
+        bufferPosition = bufferLength = 0;
         done = false;
         donePreamble = false;
     }
 }
-
@@ -105,14 +105,12 @@ class PartMessageSource extends StreamMessageSource {
 
 
     public InputStream getBody(MimePath path) throws PantomimeException {
-        long bodyStart = getBodyStart(path);
-        long bodyEnd = getBodyEnd(path);
-
-        InputStream stream =
-            new PartMimePartInputStream(part, bodyStart, bodyEnd);
+        return getRange(getBodyStart(path), getBodyEnd(path));
+    }
 
+    InputStream getRange(long start, long end) throws PantomimeException {
+        InputStream stream = new PartMimePartInputStream(part, start, end);
         StreamMonitor.opened(this, stream);
-
         return stream;
     }
 
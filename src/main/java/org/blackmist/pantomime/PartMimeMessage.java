@@ -0,0 +1,122 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.InputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import java.util.Date;
+import java.util.Enumeration;
+
+import jakarta.mail.MessagingException;
+import jakarta.mail.Session;
+
+import jakarta.mail.internet.MimeMessage;
+
+/**
+ * A JavaMail message that is a view of a Pantomime MIME part.
+ * <p>
+ * The headers are copied over when the view is constructed. The body is
+ * never copied. Each time JavaMail asks for the content, or writes the
+ * message out (e.g., {@link jakarta.mail.Transport#send}), the body is
+ * serialized straight from the Pantomime part. A large message can
+ * therefore be sent in constant memory.
+ * <p>
+ * The view is only good as long as the underlying part and its
+ * {@link MessageSource} are. Do not free the source before JavaMail is
+ * done with this message.
+ */
+class PartMimeMessage extends MimeMessage {
+
+    private static final byte[] CRLF = { 13, 10 };
+
+    private Part part;
+
+    PartMimeMessage(Session session, Part part) throws PantomimeException {
+
+        super(session);
+
+        this.part = part;
+
+        for ( Header header : part.getHeaderList() ) {
+            headers.addHeader(header.getName(),
+                header.getTransferEncodedValue());
+        }
+
+    }
+
+    /**
+     * Returns the transfer encoded body, serialized from the Pantomime part.
+     */
+    protected InputStream getContentStream() throws MessagingException {
+        return new PartInputStream(part, false);
+    }
+
+    /**
+     * Only fills in the headers JavaMail requires. Unlike a regular
+     * MimeMessage, this never touches the content, and it keeps any existing
+     * Message-ID.
+     */
+    protected synchronized void updateHeaders() throws MessagingException {
+
+        setHeader("MIME-Version", "1.0");
+
+        if ( getHeader("Date") == null ) {
+            setSentDate(new Date());
+        }
+
+        if ( getHeader("Message-ID") == null ) {
+            updateMessageID();
+        }
+
+    }
+
+    /**
+     * Writes the headers, less those in the ignore list, followed by the body
+     * streamed from the Pantomime part.
+     */
+    public void writeTo(OutputStream os, String[] ignoreList)
+        throws IOException, MessagingException {
+
+        Enumeration<String> lines;
+        PartInputStream stream = null;
+
+        if ( ! saved ) {
+            saveChanges();
+        }
+
+        lines = getNonMatchingHeaderLines(ignoreList);
+
+        while ( lines.hasMoreElements() ) {
+            os.write(lines.nextElement().getBytes());
+            os.write(CRLF);
+        }
+
+        os.write(CRLF);
+
+        try {
+
+            stream = new PartInputStream(part, false);
+
+            stream.writeTo(os);
+
+        } finally {
+            StreamUtility.close(this, stream);
+        }
+
+        os.flush();
+
+    }
+
+}
@@ -17,15 +17,38 @@ package org.blackmist.pantomime;
 import java.io.InputStream;
 import java.io.IOException;
 
-import java.util.LinkedList;
+import java.util.Arrays;
 
 class QuotedPrintableDecodeInputStream extends InputStream {
 
+    private static final int[] HEX = new int[256];
+
+    static {
+
+        Arrays.fill(HEX, -1);
+
+        for ( int index = 0; index < 10; index++ ) {
+            HEX['0' + index] = index;
+        }
+
+        for ( int index = 0; index < 6; index++ ) {
+            HEX['A' + index] = 10 + index;
+            HEX['a' + index] = 10 + index;
+        }
+    }
+
     private InputStream input;
-    private LinkedList<Byte> buffer = new LinkedList<Byte>();
-    private byte[] readBuffer = new byte[8192];
+    private byte[] inputBuffer = new byte[8192];
+
+    /* room for an equal sign and what follows it from the last read */
+    private byte[] readBuffer = new byte[inputBuffer.length + 2];
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean endOfInput = false;
     private boolean header = false;
 
+    private byte[] single = new byte[1];
+
     QuotedPrintableDecodeInputStream(InputStream input) {
         this.input = input;
     }
@@ -35,203 +58,212 @@ class QuotedPrintableDecodeInputStream extends InputStream {
         this.header = header;
     }
 
-    public int available() throws IOException {
-        return input.available();
-    }
+    /**
+     * Decodes the given range of the array in place, the same way this
+     * stream would, and returns the number of bytes decoded.
+     */
+    static int decodeInPlace(byte[] data, int offset, int length,
+        boolean header) {
 
-    public void close() throws IOException {
-        StreamUtility.close(this, input);
-    }
+        int limit = offset + length;
+        int position = offset;
+        int at = offset;
 
-    public void mark(int readLimit) {
-        return;
-    }
+        while ( position < limit ) {
 
-    public boolean markSupported() {
-        return false;
-    }
+            byte next = data[position];
 
+            if ( next != 61 ) {
 
-    private int readMore() throws IOException {
+                if ( header && ( next == 95 ) ) {
+                    data[at++] = 32;
+                } else {
+                    data[at++] = next;
+                }
 
-        int bytesRead = input.read(readBuffer);
+                position++;
 
-        for ( int index = 0; index < bytesRead; index++ ) {
+                continue;
+            }
 
+            if ( position + 1 >= limit ) {
+                position++;
+                continue;
+            }
 
-            buffer.add(readBuffer[index]);
+            next = data[position+1];
 
-        }
+            if ( next == 10 ) {
+                position += 2;
+                continue;
+            }
 
-        return bytesRead;
+            if ( next == 13 ) {
 
-    }
+                position += 2;
 
-    private static int hexToBin( char ch ) {
-        if( '0'<=ch && ch<='9' )    return ch-'0';
-        if( 'A'<=ch && ch<='F' )    return ch-'A'+10;
-        if( 'a'<=ch && ch<='f' )    return ch-'a'+10;
-        return -1;
-    }
+                if ( ( position < limit ) && ( data[position] == 10 ) ) {
+                    position++;
+                }
 
-    private static class Result {
-        private int data;
-        private boolean state;
-        private Result() {
-            data = -1;
-            state = false;
-        }
-        private Result(int data) {
-            this.data = data;
-            state = true;
-        }
-    }
+                continue;
+            }
 
-    public int read() throws IOException {
+            if ( ( position + 2 >= limit ) ||
+                ( HEX[next & 0xff] == -1 ) ||
+                ( HEX[data[position+2] & 0xff] == -1 ) ) {
 
-        return _read().data;
+                data[at++] = 61;
+                position++;
 
-    }
+                continue;
+            }
 
-    public Result _read() throws IOException {
+            data[at++] = (byte)( ( HEX[next & 0xff] << 4 ) |
+                HEX[data[position+2] & 0xff] );
 
-        boolean keepGoing = true;
+            position += 3;
+        }
 
-        while ( keepGoing ) {
+        return at - offset;
+    }
 
-            Byte b;
+    public int available() throws IOException {
+        return ( readLimit - readPosition ) + input.available();
+    }
 
-            boolean isLineEnding;
+    public void close() throws IOException {
+        StreamUtility.close(this, input);
+    }
 
-            /* make sure we have data */
-            if ( buffer.size() <= 0 ) {
-                int bytesRead = readMore();
+    public void mark(int readLimit) {
+        return;
+    }
 
-                if ( bytesRead == 0 ) {
-                    /* no more data */
-                    return new Result();
-                }
-            }
+    public boolean markSupported() {
+        return false;
+    }
 
-            /* grab a byte */
-            b = buffer.poll();
 
-            if ( b == null ) {
-                /* no more data ??? */
-                return new Result();
-            }
+    /**
+     * Moves whatever is left in the read buffer to the front, and appends
+     * the next read from the input.
+     */
+    private void readMore() throws IOException {
 
-            /* usual case. plain data. return */
-            if ( b != 61 ) {
+        int remainder = readLimit - readPosition;
+        int bytesRead;
 
-                /* If this is a header, we need to convert _ to <space> */
-                if ( header && ( b == 95 ) ) {
-                    return new Result(32);
-                } else {
-                    return new Result(b);
-                }
-            }
-
-
-            /* handle the case if the = is following by \r or \n */
-            isLineEnding = handleEqualsThenLineEnding();
+        System.arraycopy(readBuffer, readPosition, readBuffer, 0, remainder);
 
-            /* if this was a line ending, then read another byte */
-            if ( isLineEnding ) {
-                continue;
-            }
+        readPosition = 0;
+        readLimit = remainder;
 
-            /* there was an = and it wasn't a line ending. read hex value */
-            return handleHexValue();
+        bytesRead = input.read(inputBuffer);
 
+        if ( bytesRead <= 0 ) {
+            endOfInput = true;
+            return;
         }
 
-        return new Result();
-    }
+        System.arraycopy(inputBuffer, 0, readBuffer, remainder, bytesRead);
 
-    private boolean handleEqualsThenLineEnding() throws IOException {
+        readLimit += bytesRead;
 
-        /* handle the end of line case */
-
-        byte b;
-
-        if ( buffer.size() < 1 ) {
-
-            int bytesRead = readMore();
+    }
 
-            if ( bytesRead <= 0 ) {
-                return true;
-            }
+    public int read() throws IOException {
 
+        if ( read(single, 0, 1) <= 0 ) {
+            return -1;
         }
 
-        b = buffer.peek();
+        return single[0] & 0xff;
 
-        if ( b == 10 ) {
-            buffer.poll();
-            return true;
+    }
 
-        } else if ( b == 13 ) {
+    /**
+     * Decodes buffered input straight into the given array. Stops when
+     * either runs out, or at an equal sign too close to the end of the
+     * buffered input to tell what it is. Returns the number of bytes written.
+     */
+    private int decode(byte[] b, int off, int len) {
 
+        byte[] in = readBuffer;
+        int position = readPosition;
+        int limit = readLimit;
+        int end = off + len;
+        int at = off;
 
-            buffer.poll();
+        while ( ( position < limit ) && ( at < end ) ) {
 
-            if ( buffer.size() < 1 ) {
+            byte next = in[position];
 
-                int bytesRead = readMore();
+            /* usual case. plain data. */
+            if ( next != 61 ) {
 
-                if ( bytesRead <= 0 ) {
-                    return true;
+                /* If this is a header, we need to convert _ to <space> */
+                if ( header && ( next == 95 ) ) {
+                    b[at++] = 32;
+                } else {
+                    b[at++] = next;
                 }
 
-            }
-
-            b = buffer.peek();
+                position++;
 
-            if ( b == 10 ) {
-                buffer.poll();
+                continue;
             }
 
-            return true;
+            if ( ( limit - position < 3 ) && ( ! endOfInput ) ) {
+                break;
+            }
 
-        }
+            /* handle the case if the = is following by \r or \n */
+            if ( position + 1 >= limit ) {
+                /* nothing after it */
+                position++;
+                continue;
+            }
 
-        return false;
+            next = in[position+1];
 
-    }
+            if ( next == 10 ) {
+                position += 2;
+                continue;
+            }
 
-    private Result handleHexValue() throws IOException {
-        char charOne;
-        char charTwo;
-        int hexOne;
-        int hexTwo;
+            if ( next == 13 ) {
 
-        if ( buffer.size() < 2 ) {
+                position += 2;
 
-            int bytesRead = readMore();
+                if ( ( position < limit ) && ( in[position] == 10 ) ) {
+                    position++;
+                }
 
-            if ( bytesRead < 2 ) {
-                /* not enough data to decode */
-                return new Result(61);
+                continue;
             }
 
-        }
+            /* there was an = and it wasn't a line ending. read hex value */
+            if ( ( position + 2 >= limit ) ||
+                ( HEX[next & 0xff] == -1 ) ||
+                ( HEX[in[position+2] & 0xff] == -1 ) ) {
 
-        charOne = (char)(buffer.get(0).byteValue());
-        charTwo = (char)(buffer.get(1).byteValue());
+                /* not a valid hex number */
+                b[at++] = 61;
+                position++;
 
-        hexOne = hexToBin(charOne);
-        hexTwo = hexToBin(charTwo);
+                continue;
+            }
 
-        if ( ( hexOne == -1 ) || ( hexTwo == -1 ) ) {
-            /* not a valid hex number */
-            return new Result(61);
+            b[at++] = (byte)( ( HEX[next & 0xff] << 4 ) |
+                HEX[in[position+2] & 0xff] );
+
+            position += 3;
         }
 
-        buffer.poll();
-        buffer.poll();
+        readPosition = position;
 
-        return new Result( ( hexOne * 16 ) + hexTwo );
+        return at - off;
 
     }
 
@@ -243,15 +275,33 @@ class QuotedPrintableDecodeInputStream extends InputStream {
 
         int bytesRead = 0;
 
-        for ( int index = 0; index < len; index++ ) {
-            Result result = _read();
+        if ( len == 0 ) {
+            return 0;
+        }
+
+        while ( bytesRead < len ) {
 
-            if ( ! result.state ) {
-                break;
+            int decoded;
+
+            if ( readPosition >= readLimit ) {
+
+                if ( endOfInput ) {
+                    break;
+                }
+
+                readMore();
+
+                continue;
+            }
+
+            decoded = decode(b, off + bytesRead, len - bytesRead);
+
+            if ( ( decoded == 0 ) && ( readPosition < readLimit ) ) {
+                /* an equal sign is waiting on what follows it */
+                readMore();
             }
 
-            b[off+index] = (byte)result.data;
-            bytesRead++;
+            bytesRead += decoded;
         }
 
         if ( bytesRead < 1 ) {
@@ -268,18 +318,29 @@ class QuotedPrintableDecodeInputStream extends InputStream {
     }
 
     public long skip(long n) throws IOException {
-        int skipped = 0;
 
-        for ( int index = 0; index < n; index++ ) {
-            if ( read() == -1 ) {
+        byte[] scratch;
+        long skipped = 0;
+
+        if ( n <= 0 ) {
+            return 0;
+        }
+
+        scratch = new byte[(int)Math.min(n, 8192)];
+
+        while ( skipped < n ) {
+
+            int bytesRead = read(scratch, 0,
+                (int)Math.min(n - skipped, scratch.length));
+
+            if ( bytesRead <= 0 ) {
                 break;
-            } else {
-                skipped++;
             }
+
+            skipped += bytesRead;
         }
 
         return skipped;
 
     }
 }
-
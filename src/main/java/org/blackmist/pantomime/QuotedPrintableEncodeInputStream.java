@@ -17,28 +17,34 @@ package org.blackmist.pantomime;
 import java.io.InputStream;
 import java.io.IOException;
 
-import java.util.LinkedList;
-
 class QuotedPrintableEncodeInputStream extends InputStream {
 
     private InputStream input;
-    private LinkedList<Byte> buffer = new LinkedList<Byte>();
-    private LinkedList<Byte> encodedBuffer = new LinkedList<Byte>();
+    private QuotedPrintableEncoder encoder;
     private byte[] readBuffer = new byte[8192];
-    private boolean header = false;
-    private int charCountInLine = 0;
+    private int readPosition = 0;
+    private int readLimit = 0;
+    private boolean endOfInput = false;
+
+    /* encoded bytes that did not fit the caller's array */
+    private byte[] pending = new byte[QuotedPrintableEncoder.MAX_ENCODED_LENGTH];
+    private int pendingPosition = 0;
+    private int pendingLength = 0;
+
+    private byte[] single = new byte[1];
 
     QuotedPrintableEncodeInputStream(InputStream input) {
-        this.input = input;
+        this(input, false);
     }
 
     QuotedPrintableEncodeInputStream(InputStream input, boolean header) {
         this.input = input;
-        this.header = header;
+        this.encoder = new QuotedPrintableEncoder(header);
     }
 
     public int available() throws IOException {
-        return input.available();
+        return ( pendingLength - pendingPosition ) +
+            ( readLimit - readPosition ) + input.available();
     }
 
     public void close() throws IOException {
@@ -54,154 +60,130 @@ class QuotedPrintableEncodeInputStream extends InputStream {
     }
 
 
-    private int readMore() throws IOException {
+    private void readMore() throws IOException {
 
         int bytesRead = input.read(readBuffer);
 
-        for ( int index = 0; index < bytesRead; index++ ) {
-
-            buffer.add(readBuffer[index]);
+        readPosition = 0;
+        readLimit = 0;
 
+        if ( bytesRead <= 0 ) {
+            endOfInput = true;
+            return;
         }
 
-        return bytesRead;
+        readLimit = bytesRead;
 
     }
 
-    private static class Result {
-        private int data;
-        private boolean state;
-        private Result() {
-            data = -1;
-            state = false;
-        }
-        private Result(int data) {
-            this.data = data;
-            state = true;
-        }
-    }
-
     public int read() throws IOException {
 
-        return _read().data;
+        if ( read(single, 0, 1) <= 0 ) {
+            return -1;
+        }
+
+        return single[0] & 0xff;
 
     }
 
-    private Result _read() throws IOException {
+    /**
+     * Encodes buffered input straight into the given array, for as long as
+     * both input and room last. Returns the number of bytes written.
+     */
+    private int encode(byte[] b, int off, int len) {
 
-        Byte b = encodedBuffer.poll();
+        byte[] in = readBuffer;
+        int position = readPosition;
+        int limit = readLimit;
+        int end = off + len;
+        int at = off;
 
-        if ( b == null ) {
-            encode();
-            b = encodedBuffer.poll();
-        }
+        while ( position < limit ) {
 
-        if ( b == null ) {
-            return new Result();
-        }
+            int plain = QuotedPrintableEncoder.plainRun(in, position, limit);
 
-        return new Result(b);
+            if ( plain > 0 ) {
 
-    }
+                /* as many as surely fit, soft line breaks and all */
+                plain = Math.min(plain, ( end - at - 3 ) * 75 / 78);
 
-    private boolean isPrintable(Byte b) {
+                if ( plain > 0 ) {
+                    at = encoder.encodePlain(in, position, plain, b, at);
+                    position += plain;
+                    continue;
+                }
+            }
 
-        if ( b == 61 ) {
-            return false;
-        }
+            byte next = in[position];
 
-        if ( b == 9 ) {
-            return true;
-        }
+            if ( ( end - at < QuotedPrintableEncoder.MAX_ENCODED_LENGTH ) &&
+                ( at + encoder.encodedLength(next) > end ) ) {
+                break;
+            }
 
-        if ( ( b >= 32 ) && ( b <= 126 ) ) {
-            return true;
+            at = encoder.encode(next, b, at);
+            position++;
         }
 
-        return false;
+        readPosition = position;
+
+        return at - off;
+
     }
 
-    private void encode() throws IOException {
+    public int read(byte[] b) throws IOException {
+        return read(b, 0, b.length);
+    }
 
-        Byte b;
+    public int read(byte[] b, int off, int len) throws IOException {
 
-        /* make sure we have data */
-        if ( buffer.size() <= 0 ) {
-            int bytesRead = readMore();
+        int bytesRead = 0;
 
-            if ( bytesRead == 0 ) {
-                return;
-            }
+        if ( len == 0 ) {
+            return 0;
         }
 
-        /* grab a byte */
-        b = buffer.poll();
+        while ( bytesRead < len ) {
 
-        if ( b == null ) {
-            return;
-        }
+            if ( pendingPosition < pendingLength ) {
 
-        if ( isPrintable(b) ) {
+                int count = Math.min(len - bytesRead,
+                    pendingLength - pendingPosition);
 
-            /* plain character. no change */
+                System.arraycopy(pending, pendingPosition, b,
+                    off + bytesRead, count);
 
-            if ( charCountInLine >= 75 ) {
-                /* eol = \r \n, then b */
-                encodedBuffer.add((byte)61);
-                encodedBuffer.add((byte)13);
-                encodedBuffer.add((byte)10);
-                charCountInLine = 0;
-            }
+                pendingPosition += count;
+                bytesRead += count;
 
-            if ( header && ( b == 32 ) ) {
-                encodedBuffer.add((byte)95);
-            } else {
-                encodedBuffer.add(b);
+                continue;
             }
 
-            charCountInLine++;
+            if ( readPosition >= readLimit ) {
 
-        } else {
+                if ( endOfInput ) {
+                    break;
+                }
 
-            String hex = String.format("%02X", b);
+                readMore();
 
-
-            if ( charCountInLine >= 73 ) {
-                /* eol = \r \n, then b */
-                encodedBuffer.add((byte)61);
-                encodedBuffer.add((byte)13);
-                encodedBuffer.add((byte)10);
-                charCountInLine = 0;
+                continue;
             }
 
-            encodedBuffer.add((byte)61);
-            encodedBuffer.add((byte)hex.charAt(0));
-            encodedBuffer.add((byte)hex.charAt(1));
+            int encoded = encode(b, off + bytesRead, len - bytesRead);
 
-            charCountInLine += 3;
-            
+            if ( encoded == 0 ) {
+                /* no room left for the next encoded byte */
+                pendingPosition = 0;
+                pendingLength = encoder.encode(readBuffer[readPosition++],
+                    pending, 0);
+            }
 
+            bytesRead += encoded;
         }
 
-    }
-
-    public int read(byte[] b) throws IOException {
-        return read(b, 0, b.length);
-    }
-
-    public int read(byte[] b, int off, int len) throws IOException {
-
-        int bytesRead = 0;
-
-        for ( int index = 0; index < len; index++ ) {
-            Result result = _read();
-
-            if ( ! result.state ) {
-                break;
-            }
-
-            b[off+index] = (byte)result.data;
-            bytesRead++;
+        if ( bytesRead == 0 ) {
+            return -1;
         }
 
         return bytesRead;
@@ -213,18 +195,29 @@ class QuotedPrintableEncodeInputStream extends InputStream {
     }
 
     public long skip(long n) throws IOException {
-        int skipped = 0;
 
-        for ( int index = 0; index < n; index++ ) {
-            if ( read() == -1 ) {
+        byte[] scratch;
+        long skipped = 0;
+
+        if ( n <= 0 ) {
+            return 0;
+        }
+
+        scratch = new byte[(int)Math.min(n, 8192)];
+
+        while ( skipped < n ) {
+
+            int bytesRead = read(scratch, 0,
+                (int)Math.min(n - skipped, scratch.length));
+
+            if ( bytesRead <= 0 ) {
                 break;
-            } else {
-                skipped++;
             }
+
+            skipped += bytesRead;
         }
 
         return skipped;
 
     }
 }
-
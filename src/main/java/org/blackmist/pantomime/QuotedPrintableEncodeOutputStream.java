@@ -0,0 +1,101 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Quoted-printable encodes whatever is written to it, for when the content
+ * is pushed rather than pulled.
+ * <p>
+ * The output is the same as that of {@link QuotedPrintableEncodeInputStream}.
+ * Closing this stream flushes it, and closes the underlying stream.
+ */
+class QuotedPrintableEncodeOutputStream extends OutputStream {
+
+    private OutputStream output;
+    private QuotedPrintableEncoder encoder;
+    private byte[] buffer = new byte[8192];
+    private int position = 0;
+
+    QuotedPrintableEncodeOutputStream(OutputStream output) {
+        this(output, false);
+    }
+
+    QuotedPrintableEncodeOutputStream(OutputStream output, boolean header) {
+        this.output = output;
+        this.encoder = new QuotedPrintableEncoder(header);
+    }
+
+    private void flushBuffer() throws IOException {
+
+        if ( position > 0 ) {
+            output.write(buffer, 0, position);
+            position = 0;
+        }
+    }
+
+    public void write(int b) throws IOException {
+
+        if ( position + QuotedPrintableEncoder.MAX_ENCODED_LENGTH >
+            buffer.length ) {
+            flushBuffer();
+        }
+
+        position = encoder.encode(b, buffer, position);
+    }
+
+    public void write(byte[] b, int off, int len) throws IOException {
+
+        int limit = buffer.length - QuotedPrintableEncoder.MAX_ENCODED_LENGTH;
+        int end = off + len;
+        int index = off;
+
+        while ( index < end ) {
+
+            int plain;
+
+            if ( position > limit ) {
+                flushBuffer();
+            }
+
+            plain = Math.min(QuotedPrintableEncoder.plainRun(b, index, end),
+                ( buffer.length - position - 3 ) * 75 / 78);
+
+            if ( plain > 0 ) {
+                position = encoder.encodePlain(b, index, plain, buffer,
+                    position);
+                index += plain;
+                continue;
+            }
+
+            position = encoder.encode(b[index++], buffer, position);
+        }
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        output.flush();
+    }
+
+    public void close() throws IOException {
+
+        try {
+            flush();
+        } finally {
+            StreamUtility.close(this, output);
+        }
+    }
+
+}
@@ -0,0 +1,234 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+/**
+ * The quoted-printable encoding state shared by the encode streams.
+ * <p>
+ * Tab, space and the printable ASCII characters other than the equal sign
+ * go through as they are. Everything else, including CR and LF, is
+ * written as an equal sign and two upper-case hex digits. Lines are kept
+ * under 76 characters with soft line breaks. In a header, space is
+ * written as an underscore.
+ */
+class QuotedPrintableEncoder {
+
+    /* Soft line break, then an escape. */
+    static final int MAX_ENCODED_LENGTH = 6;
+
+    private static final byte[] HEX = "0123456789ABCDEF".getBytes();
+
+    private static final boolean[] PRINTABLE = new boolean[256];
+
+    static {
+
+        PRINTABLE[9] = true;
+
+        for ( int index = 32; index <= 126; index++ ) {
+            PRINTABLE[index] = true;
+        }
+
+        PRINTABLE[61] = false;
+    }
+
+    private boolean header;
+    private int charCountInLine = 0;
+
+    QuotedPrintableEncoder(boolean header) {
+        this.header = header;
+    }
+
+    /**
+     * Returns the number of bytes the given byte encodes to, counting the
+     * soft line break it may need.
+     */
+    int encodedLength(int b) {
+
+        if ( PRINTABLE[b & 0xff] ) {
+            return ( charCountInLine >= 75 ) ? 4 : 1;
+        }
+
+        return ( charCountInLine >= 73 ) ? 6 : 3;
+    }
+
+    /**
+     * Moves past the given byte without writing it, and returns the number
+     * of bytes it encodes to.
+     */
+    int count(int b) {
+
+        int length = encodedLength(b);
+
+        if ( length > 3 ) {
+            /* soft line break first */
+            charCountInLine = length - 3;
+        } else {
+            charCountInLine += length;
+        }
+
+        return length;
+    }
+
+    /**
+     * Moves past the given bytes without writing them, and returns the
+     * number of bytes they encode to.
+     */
+    long count(byte[] data, int offset, int length) {
+
+        int end = offset + length;
+        long encoded = 0;
+
+        while ( offset < end ) {
+
+            int special =
+                ByteKernels.indexOfQuotedPrintableSpecial(data, offset, end);
+
+            encoded += countPlain(special - offset);
+
+            if ( special < end ) {
+                encoded += count(data[special]);
+                special++;
+            }
+
+            offset = special;
+        }
+
+        return encoded;
+    }
+
+    /**
+     * Moves past a run of bytes that go through as they are, and returns
+     * the number of bytes they encode to.
+     */
+    private long countPlain(int run) {
+
+        int room = Math.max(0, 75 - charCountInLine);
+        int rest;
+        int breaks;
+
+        if ( run <= room ) {
+            charCountInLine += run;
+            return run;
+        }
+
+        /* every soft line break after the first line holds 75 more */
+        rest = run - room;
+        breaks = ( rest + 74 ) / 75;
+        charCountInLine = rest - ( breaks - 1 ) * 75;
+
+        return run + 3L * breaks;
+    }
+
+    /**
+     * Returns the number of bytes from the given position that go through
+     * as they are.
+     */
+    static int plainRun(byte[] data, int position, int limit) {
+        return ByteKernels.indexOfQuotedPrintableSpecial(data, position,
+            limit) - position;
+    }
+
+    /**
+     * Writes the given number of bytes, all of which go through as they
+     * are, into the array at the given position, with soft line breaks where
+     * needed. Returns the position after them. They take up no more than
+     * count + 3 * (count / 75 + 1) bytes.
+     */
+    int encodePlain(byte[] in, int offset, int count, byte[] out,
+        int position) {
+
+        while ( count > 0 ) {
+
+            int length;
+
+            if ( charCountInLine >= 75 ) {
+                out[position++] = 61;
+                out[position++] = 13;
+                out[position++] = 10;
+                charCountInLine = 0;
+            }
+
+            length = Math.min(count, 75 - charCountInLine);
+
+            System.arraycopy(in, offset, out, position, length);
+
+            if ( header ) {
+
+                for ( int index = position; index < position + length;
+                    index++ ) {
+
+                    if ( out[index] == 32 ) {
+                        out[index] = 95;
+                    }
+                }
+            }
+
+            offset += length;
+            position += length;
+            count -= length;
+            charCountInLine += length;
+        }
+
+        return position;
+    }
+
+    /**
+     * Writes the encoded form of the given byte into the array at the given
+     * position and returns the position after it.
+     */
+    int encode(int b, byte[] out, int position) {
+
+        b &= 0xff;
+
+        if ( PRINTABLE[b] ) {
+
+            /* plain character. no change */
+
+            if ( charCountInLine >= 75 ) {
+                /* eol = \r \n, then b */
+                out[position++] = 61;
+                out[position++] = 13;
+                out[position++] = 10;
+                charCountInLine = 0;
+            }
+
+            if ( header && ( b == 32 ) ) {
+                out[position++] = 95;
+            } else {
+                out[position++] = (byte)b;
+            }
+
+            charCountInLine++;
+
+        } else {
+
+            if ( charCountInLine >= 73 ) {
+                /* eol = \r \n, then b */
+                out[position++] = 61;
+                out[position++] = 13;
+                out[position++] = 10;
+                charCountInLine = 0;
+            }
+
+            out[position++] = 61;
+            out[position++] = HEX[b >> 4];
+            out[position++] = HEX[b & 15];
+
+            charCountInLine += 3;
+
+        }
+
+        return position;
+    }
+
+}
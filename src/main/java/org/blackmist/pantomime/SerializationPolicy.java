@@ -0,0 +1,76 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+/**
+ * What the transport a message is serialized for can carry.
+ * <p>
+ * New bodies are encoded Quoted Printable or Base64 when they are set, so
+ * that they can go anywhere. A transport that advertises 8BITMIME takes
+ * them as they are instead, as 8bit, if no line is longer than 998 bytes,
+ * there is no NUL and carriage returns and line feeds only come together,
+ * as CRLF. A body with bare line feeds is still encoded.
+ * One that also advertises BINARYMIME takes any body as it is, as binary.
+ * Either way, the body is not encoded at all, and the message is smaller.
+ * <p>
+ * Bodies read from a message source go out as they are in the source,
+ * whatever the policy.
+ *
+ * @see Part#serialize(SerializationPolicy)
+ * @see <a href="http://tools.ietf.org/html/rfc6152">RFC 6152 on 8BITMIME</a>
+ * @see <a href="http://tools.ietf.org/html/rfc3030">RFC 3030 on BINARYMIME</a>
+ */
+public final class SerializationPolicy {
+
+    /**
+     * Only 7bit, Quoted Printable and Base64. This is the default.
+     */
+    public static final SerializationPolicy SEVEN_BIT =
+        new SerializationPolicy(false, false);
+
+    /**
+     * 8bit, for a transport that advertises 8BITMIME.
+     */
+    public static final SerializationPolicy EIGHT_BIT_MIME =
+        new SerializationPolicy(true, false);
+
+    /**
+     * 8bit and binary, for a transport that advertises BINARYMIME and
+     * CHUNKING.
+     */
+    public static final SerializationPolicy BINARY_MIME =
+        new SerializationPolicy(true, true);
+
+    private final boolean eightBit;
+    private final boolean binary;
+
+    private SerializationPolicy(boolean eightBit, boolean binary) {
+        this.eightBit = eightBit;
+        this.binary = binary;
+    }
+
+    /**
+     * Returns true if bodies may go out as 8bit.
+     */
+    public boolean isEightBitAllowed() {
+        return eightBit;
+    }
+
+    /**
+     * Returns true if bodies may go out as binary.
+     */
+    public boolean isBinaryAllowed() {
+        return binary;
+    }
+
+}
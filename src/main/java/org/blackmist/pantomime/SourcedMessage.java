@@ -33,6 +33,16 @@ public class SourcedMessage extends Message {
      * Writes any changes back to storage.
      */
     public void save() throws PantomimeException {
+        save(SerializationPolicy.SEVEN_BIT);
+    }
+
+    /**
+     * Writes any changes back to storage, with new bodies encoded only as
+     * far as the given policy calls for.
+     *
+     * @see Part#serialize(SerializationPolicy)
+     */
+    public void save(SerializationPolicy policy) throws PantomimeException {
 
         InputStream stream = null;
 
@@ -42,7 +52,7 @@ public class SourcedMessage extends Message {
 
         try {
 
-            stream = serialize();
+            stream = serialize(policy);
 
             source.save(stream);
 
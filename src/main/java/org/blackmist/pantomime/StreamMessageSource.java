@@ -45,6 +45,35 @@ abstract class StreamMessageSource implements MessageSource {
     abstract int read() throws PantomimeException;
     abstract long getLength() throws PantomimeException;
 
+    /**
+     * Reads from the given position without moving the position used
+     * for parsing. Returns -1 at the end of the message.
+     * <p>
+     * Only sources with random access to their storage support this.
+     */
+    int read(long position, byte[] data, int offset, int length)
+        throws PantomimeException {
+
+        throw new PantomimeException(getClass().getSimpleName() +
+            " does not support positional reads.");
+    }
+
+    /**
+     * Returns the given stretch of the message, end position included, in
+     * the way the body of a part is read.
+     */
+    abstract InputStream getRange(long start, long end)
+        throws PantomimeException;
+
+    /**
+     * (Internal Use.) Returns true if any stretch of this source can be
+     * read cheaply, so that untouched parts can go out exactly as they
+     * came in.
+     */
+    boolean isRandomAccess() {
+        return false;
+    }
+
     private File tempdir;
 
     /**
@@ -892,6 +921,39 @@ abstract class StreamMessageSource implements MessageSource {
         return -1;
     }
 
+    /**
+     * (Internal Use.) Returns where the MIME part for the given MimePath
+     * starts in the source, at its headers or just past them.
+     */
+    long getSourceStart(MimePath path, boolean withHeaders)
+        throws PantomimeException {
+
+        return withHeaders ? getPartStart(path) : getHeaderEnd(path);
+    }
+
+    /**
+     * (Internal Use.) Returns the MIME part for the given MimePath exactly
+     * as it is in the source, from its headers or just past them.
+     */
+    InputStream getSourceBytes(MimePath path, boolean withHeaders)
+        throws PantomimeException {
+
+        return getRange(getSourceStart(path, withHeaders), getBodyEnd(path));
+    }
+
+    /**
+     * (Internal Use.) Returns the number of bytes
+     * {@link #getSourceBytes} gives.
+     */
+    long getSourceSize(MimePath path, boolean withHeaders)
+        throws PantomimeException {
+
+        /* the body end is the last byte of a nested part */
+        long end = Math.min(getBodyEnd(path) + 1, getLength());
+
+        return Math.max(0, end - getSourceStart(path, withHeaders));
+    }
+
     /**
      * (Internal Use.) Gets the size of the body of the MIME part for the
      * given MimePath
@@ -1271,35 +1333,26 @@ abstract class StreamMessageSource implements MessageSource {
                 totalRead += bytesRead;
 
                 /* look for line ending */
-                for ( int index = 0; index < bytesRead; index++ ) {
-
-                    /* got line feed. end of the line */
-                    if ( readBuffer[index] == LINE_FEED ) {
-
-                        lineBuffer.write(readBuffer, 0, index+1);
+                int index =
+                    ByteKernels.indexOfLineEnding(readBuffer, 0, bytesRead);
 
-                        readMore = false;
+                if ( index < bytesRead ) {
 
-                        break;
-
-                    }
+                    lineBuffer.write(readBuffer, 0, index+1);
 
                     /* got carriage return */
                     if ( readBuffer[index] == CARRIAGE_RETURN ) {
 
-                        lineBuffer.write(readBuffer, 0, index+1);
-
                         /* now figure out if there is a line feed
                          * in the next buffer */
                         if ( isNextCharLineFeed(index) ) {
                             lineBuffer.write(LINE_FEED);
                         }
 
-                        readMore = false;
-                        break;
-                        
                     }
 
+                    readMore = false;
+
                 }
 
                 if ( readMore ) {
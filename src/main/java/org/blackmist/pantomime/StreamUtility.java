@@ -3,7 +3,7 @@ package org.blackmist.pantomime;
 import java.io.InputStream;
 import java.io.OutputStream;
 import java.io.IOException;
-import java.io.UnsupportedEncodingException;
+import java.io.Reader;
 
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -31,37 +31,53 @@ class StreamUtility {
 
         return total;
     }
- 
-    static String asString(InputStream stream, String charset)
-        throws IOException {
 
-        int bytesRead;
-        byte[] buffer;
-        StringBuilder builder = new StringBuilder();
+    /**
+     * Counts the bytes a read() loop would see, using bulk reads. Some part
+     * streams stop one byte short in read(byte[]) at the very end, so this
+     * finishes off with read().
+     */
+    static long countAsRead(InputStream stream) throws IOException {
+
+        long total = count(stream);
 
         if ( stream == null ) {
-            return null;
+            return total;
         }
 
-        buffer = new byte[16384];
+        while ( stream.read() != -1 ) {
+            total++;
+        }
 
-        while ( ( bytesRead = stream.read(buffer) ) > 0 ) {
+        return total;
+    }
+ 
+    /**
+     * Reads up to the given number of characters. A surrogate pair is not
+     * cut in half at the end.
+     */
+    static String asString(Reader reader, int maxChars) throws IOException {
+
+        int charsRead;
+        char[] buffer;
+        StringBuilder builder = new StringBuilder();
 
-            String s;
+        if ( reader == null ) {
+            return null;
+        }
 
-            try {
+        buffer = new char[8192];
 
-                if ( charset != null ) {
-                    s = new String(buffer, 0, bytesRead, charset);
-                } else {
-                    s = new String(buffer, 0, bytesRead);
-                }
-            } catch (UnsupportedEncodingException e) {
-                s = new String(buffer, 0, bytesRead);
-            }
+        while ( ( builder.length() < maxChars ) &&
+            ( ( charsRead = reader.read(buffer, 0,
+            Math.min(buffer.length, maxChars - builder.length())) ) > 0 ) ) {
 
-            builder.append(s);
+            builder.append(buffer, 0, charsRead);
+        }
 
+        if ( ( builder.length() > 0 ) && ( builder.length() == maxChars ) &&
+            Character.isHighSurrogate(builder.charAt(maxChars - 1)) ) {
+            builder.setLength(maxChars - 1);
         }
 
         return builder.toString();
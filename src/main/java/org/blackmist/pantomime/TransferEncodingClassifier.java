@@ -0,0 +1,521 @@
+/**
+ * Copyright (c) 2013-2015 <JH Barbee>
+ *
+ * This Source Code Form is subject to the terms of the Mozilla Public
+ * License, v. 2.0. If a copy of the MPL was not distributed with this
+ * file, You can obtain one at http://mozilla.org/MPL/2.0/.
+ *
+ * Initial Developer: JH Barbee
+ *
+ * For support, please see https://bitbucket.org/barbee/pantomime
+**/
+
+package org.blackmist.pantomime;
+
+import java.io.InputStream;
+import java.io.IOException;
+
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CodingErrorAction;
+
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import static org.blackmist.pantomime.ContentTransferEncoding.*;
+
+/**
+ * Picks the transfer encoding for new content by looking at its bytes.
+ * <p>
+ * The rule is the same as always. Content with characters above code
+ * point 976 is Base64 encoded. Content with characters above 127 is
+ * Quoted Printable encoded. Anything else is 7bit.
+ * <p>
+ * For UTF-8 and single-byte character sets, the bytes are classified
+ * directly, without decoding them to characters. Other character sets go
+ * through a reusable decoder. Either way, classification stops as soon as
+ * it finds a character that calls for Base64.
+ * <p>
+ * While it is at it, it counts the bytes and what they would come to
+ * Quoted Printable encoded, so that content read to the end can be sized
+ * without encoding it.
+ */
+class TransferEncodingClassifier {
+
+    private static final byte ASCII = 0;
+    private static final byte QUOTED = 1;
+    private static final byte BINARY = 2;
+
+    private static final Charset UTF_8 = Charset.forName("UTF-8");
+
+    /* RFC 5321, not counting the CRLF */
+    private static final int MAX_LINE_LENGTH = 998;
+
+    private static final ConcurrentHashMap<Charset, byte[]> tables =
+        new ConcurrentHashMap<Charset, byte[]>();
+
+    private static final Logger log =
+        LoggerFactory.getLogger(TransferEncodingClassifier.class.getName());
+
+    private byte verdict = ASCII;
+
+    private long length = 0;
+    private long quotedLength = 0;
+    private QuotedPrintableEncoder quoted = new QuotedPrintableEncoder(false);
+    private boolean finished = false;
+    private boolean counted = false;
+
+    /* UTF-8: the lead byte waiting on its continuation, or 0 */
+    private boolean utf8;
+    private int lead = 0;
+
+    /* single-byte character sets: a verdict for each byte */
+    private byte[] table;
+    private boolean asciiCompatible;
+
+    /* everything else */
+    private CharsetDecoder decoder;
+    private ByteBuffer carry;
+    private CharBuffer chars;
+
+    TransferEncodingClassifier(String charset) {
+
+        Charset set = forName(charset);
+
+        if ( UTF_8.equals(set) ) {
+
+            utf8 = true;
+
+        } else {
+
+            table = getTable(set);
+
+            if ( table != null ) {
+
+                asciiCompatible = true;
+
+                for ( int index = 0; index < 128; index++ ) {
+                    asciiCompatible &= ( table[index] == ASCII );
+                }
+
+            } else {
+
+                decoder = set.newDecoder()
+                    .onMalformedInput(CodingErrorAction.REPLACE)
+                    .onUnmappableCharacter(CodingErrorAction.REPLACE);
+
+                carry = ByteBuffer.allocate(64);
+                chars = CharBuffer.allocate(2048);
+            }
+        }
+
+    }
+
+    private static Charset forName(String charset) {
+
+        if ( charset != null ) {
+
+            try {
+                return Charset.forName(charset);
+            } catch (IllegalArgumentException e) {
+                log.debug("Unknown charset " + charset + ". Using default.");
+            }
+        }
+
+        return Charset.defaultCharset();
+    }
+
+    /**
+     * Returns a verdict for each byte value if the character set maps every
+     * byte to one character on its own, otherwise null.
+     */
+    private static byte[] getTable(Charset charset) {
+
+        byte[] table = tables.get(charset);
+
+        if ( table != null ) {
+            return ( table.length == 0 ) ? null : table;
+        }
+
+        table = new byte[256];
+
+        if ( ( ! charset.canEncode() ) ||
+            ( charset.newEncoder().maxBytesPerChar() != 1.0f ) ||
+            ( charset.newDecoder().maxCharsPerByte() != 1.0f ) ) {
+
+            table = new byte[0];
+
+        } else {
+
+            for ( int index = 0; index < 256; index++ ) {
+
+                String s = new String(new byte[] { (byte)index }, charset);
+
+                if ( s.length() != 1 ) {
+                    table = new byte[0];
+                    break;
+                }
+
+                table[index] = classify(s.charAt(0));
+            }
+        }
+
+        tables.putIfAbsent(charset, table);
+
+        return ( table.length == 0 ) ? null : table;
+    }
+
+    private static byte classify(int codePoint) {
+
+        /* 976 only because that about where Outlook switches
+         * from QP to Base64.
+         */
+        if ( codePoint > 976 ) {
+            return BINARY;
+        }
+
+        if ( codePoint > 127 ) {
+            return QUOTED;
+        }
+
+        return ASCII;
+    }
+
+    /**
+     * Returns true once nothing further can change the verdict.
+     */
+    boolean isDecided() {
+        return verdict == BINARY;
+    }
+
+    /**
+     * Classifies the given bytes.
+     */
+    void update(byte[] data, int offset, int length) {
+
+        int end = offset + length;
+
+        if ( isDecided() ) {
+            return;
+        }
+
+        this.length += length;
+        quotedLength += quoted.count(data, offset, length);
+
+        if ( utf8 ) {
+            updateUtf8(data, offset, end);
+        } else if ( table != null ) {
+            updateTable(data, offset, end);
+        } else {
+            updateDecoder(data, offset, length, false);
+        }
+
+    }
+
+    private void updateTable(byte[] data, int offset, int end) {
+
+        byte[] table = this.table;
+        byte verdict = this.verdict;
+
+        for ( int index = offset; index < end; index++ ) {
+
+            if ( asciiCompatible ) {
+
+                index = ByteKernels.indexOfNonAscii(data, index, end);
+
+                if ( index == end ) {
+                    break;
+                }
+            }
+
+            byte next = table[data[index] & 0xff];
+
+            if ( next > verdict ) {
+
+                verdict = next;
+
+                if ( verdict == BINARY ) {
+                    break;
+                }
+            }
+        }
+
+        this.verdict = verdict;
+    }
+
+    /*
+     * Anything that decodes to three or more bytes is above 976. So is
+     * anything malformed, since it decodes to the replacement character.
+     * That leaves the two-byte sequences to work out.
+     */
+    private void updateUtf8(byte[] data, int offset, int end) {
+
+        int index = offset;
+
+        while ( index < end ) {
+
+            int next = data[index++] & 0xff;
+
+            if ( lead != 0 ) {
+
+                if ( ( next & 0xc0 ) != 0x80 ) {
+                    verdict = BINARY;
+                    return;
+                }
+
+                if ( classify(( ( lead & 0x1f ) << 6 ) | ( next & 0x3f ))
+                    == BINARY ) {
+                    verdict = BINARY;
+                    return;
+                }
+
+                verdict = QUOTED;
+                lead = 0;
+
+                continue;
+            }
+
+            if ( next < 0x80 ) {
+                index = ByteKernels.indexOfNonAscii(data, index, end);
+                continue;
+            }
+
+            if ( ( next < 0xc2 ) || ( next > 0xdf ) ) {
+                verdict = BINARY;
+                return;
+            }
+
+            lead = next;
+        }
+
+    }
+
+    private void updateDecoder(byte[] data, int offset, int length,
+        boolean endOfInput) {
+
+        ByteBuffer in;
+
+        if ( carry.position() > 0 ) {
+
+            if ( carry.remaining() < length ) {
+
+                ByteBuffer bigger =
+                    ByteBuffer.allocate(carry.position() + length);
+
+                carry.flip();
+                bigger.put(carry);
+                carry = bigger;
+            }
+
+            carry.put(data, offset, length);
+            carry.flip();
+            in = carry;
+
+        } else {
+            in = ByteBuffer.wrap(data, offset, length);
+        }
+
+        while ( true ) {
+
+            boolean overflow = decoder.decode(in, chars, endOfInput)
+                .isOverflow();
+
+            if ( endOfInput && ! overflow ) {
+                overflow = decoder.flush(chars).isOverflow();
+            }
+
+            chars.flip();
+
+            while ( chars.hasRemaining() ) {
+
+                byte next = classify(chars.get());
+
+                if ( next > verdict ) {
+
+                    verdict = next;
+
+                    if ( verdict == BINARY ) {
+                        return;
+                    }
+                }
+            }
+
+            chars.clear();
+
+            if ( ! overflow ) {
+                break;
+            }
+        }
+
+        /* keep a partial character for the next call */
+        if ( in == carry ) {
+            carry.compact();
+        } else {
+            carry.clear();
+            carry.put(in);
+        }
+
+    }
+
+    /**
+     * Returns the transfer encoding for everything classified so far, taken
+     * as the whole content.
+     */
+    ContentTransferEncoding finish() {
+
+        if ( ! finished ) {
+
+            finished = true;
+
+            if ( ! isDecided() ) {
+
+                /* everything was seen, so the counts are good */
+                counted = true;
+
+                if ( utf8 && ( lead != 0 ) ) {
+
+                    /* cut short in the middle of a character */
+                    verdict = BINARY;
+
+                } else if ( decoder != null ) {
+
+                    updateDecoder(new byte[0], 0, 0, true);
+                }
+            }
+        }
+
+        switch ( verdict ) {
+            case BINARY:
+                return BASE64;
+            case QUOTED:
+                return QUOTED_PRINTABLE;
+            default:
+                return SEVEN_BIT;
+        }
+    }
+
+    /**
+     * Returns the exact size of the content encoded for transport, or -1 if
+     * classification stopped short of the end.
+     */
+    long getTransferEncodedSize() {
+
+        ContentTransferEncoding encoding = finish();
+
+        if ( ! counted ) {
+            return -1;
+        }
+
+        if ( encoding == BASE64 ) {
+            return Base64EncodeInputStream.encodedLength(length);
+        }
+
+        if ( encoding == QUOTED_PRINTABLE ) {
+            return quotedLength;
+        }
+
+        return length;
+    }
+
+    /**
+     * Reads the given stream until its transfer encoding is certain.
+     */
+    void read(InputStream stream) throws IOException {
+
+        byte[] data = new byte[8192];
+        int bytesRead;
+
+        while ( ( ! isDecided() ) &&
+            ( ( bytesRead = stream.read(data) ) > 0 ) ) {
+
+            update(data, 0, bytesRead);
+        }
+
+    }
+
+    /**
+     * Reads the given stream and returns true if it can go out as 8bit: no
+     * NUL, carriage returns and line feeds only together as CRLF, and no
+     * line longer than 998 bytes. Stops at the first thing that rules it
+     * out.
+     */
+    static boolean isEightBitSafe(InputStream stream) throws IOException {
+
+        byte[] data = new byte[8192];
+        int bytesRead;
+        long line = 0;
+        boolean carriageReturn = false;
+
+        while ( ( bytesRead = stream.read(data) ) > 0 ) {
+
+            int index = 0;
+
+            if ( carriageReturn ) {
+
+                /* the line feed for a carriage return at the end of the
+                 * last read */
+                if ( data[0] != 10 ) {
+                    return false;
+                }
+
+                carriageReturn = false;
+                index = 1;
+            }
+
+            while ( index < bytesRead ) {
+
+                int next = ByteKernels.indexOfLineEndingOrNul(data, index,
+                    bytesRead);
+
+                line += next - index;
+
+                if ( line > MAX_LINE_LENGTH ) {
+                    return false;
+                }
+
+                if ( next == bytesRead ) {
+                    break;
+                }
+
+                /* NUL, or a line feed without its carriage return */
+                if ( data[next] != 13 ) {
+                    return false;
+                }
+
+                line = 0;
+                index = next + 1;
+
+                if ( index == bytesRead ) {
+                    carriageReturn = true;
+                } else if ( data[index] != 10 ) {
+                    return false;
+                } else {
+                    index++;
+                }
+            }
+        }
+
+        return ! carriageReturn;
+    }
+
+    /**
+     * Reads the given stream until its transfer encoding is certain, and
+     * returns it.
+     */
+    static ContentTransferEncoding classify(InputStream stream,
+        String charset) throws IOException {
+
+        TransferEncodingClassifier classifier =
+            new TransferEncodingClassifier(charset);
+
+        classifier.read(stream);
+
+        return classifier.finish();
+    }
+
+}
@@ -364,4 +364,31 @@ class AddressTest {
 
     }
 
+    @Test
+    void testParsedRecipients() throws Exception {
+
+        def message = new Message()
+        message.addHeader('To', '"smith, robert" <bob@domain.com>, ' +
+            ' alice@domain.com (a comment) ,<carol@domain.com>')
+        message.addHeader('Cc', 'dave@domain.com')
+
+        def addresses = message.getToRecipients()
+
+        assert 3 == addresses.size()
+        assert 'smith, robert' == addresses[0].getPersonal()
+        assert 'bob@domain.com' == addresses[0].getEmail()
+        assert '"smith, robert" <bob@domain.com>' == addresses[0].getRaw()
+        assert 'a comment' == addresses[1].getComment()
+        assert 'alice@domain.com (a comment)' == addresses[1].getRaw()
+        assert 'carol@domain.com' == addresses[2].toString()
+
+        /* parsed once, until the header is set again */
+        assert message.getToRecipients()[0].is(addresses[0])
+        assert message.getAllRecipients()[3].is(message.getCcRecipients()[0])
+
+        message.getFirstHeader('to').setValue('erin@domain.com')
+        assert ['erin@domain.com'] == message.getAllRecipientStrings()[0..<1]
+        assert 2 == message.getAllRecipients().size()
+    }
+
 }
@@ -126,4 +126,116 @@ class Base64DecodeTest {
         testDecode('YWFhYWE=\r\nHello World', 'aaaaa');
     }
 
+    /* Characters outside the alphabet are skipped wherever they fall,
+     * also when they split a quantum across refills of the input buffer
+     * and the caller's reads end inside a quantum.
+     */
+    @Test
+    void testBulkReadsSkipInvalid() throws Exception {
+
+        byte[] plain = new byte[30000]
+
+        for ( int index = 0; index < plain.length; index++ ) {
+            plain[index] = (byte)(index * 7)
+        }
+
+        String clean = plain.encodeBase64().toString()
+        String noise = ' \t\n*#\r\n.'
+        StringBuilder crypt = new StringBuilder()
+
+        for ( int index = 0; index < clean.length(); index++ ) {
+
+            crypt.append(clean.charAt(index))
+
+            if ( index % 13 == 5 ) {
+                crypt.append(noise.charAt(index % noise.length()))
+            }
+        }
+
+        /* hands over at most 5 bytes at a time */
+        def trickle = new FilterInputStream(
+            new ByteArrayInputStream(crypt.toString().getBytes('US-ASCII'))) {
+            int read(byte[] b, int off, int len) {
+                return super.read(b, off, Math.min(len, 5))
+            }
+        }
+
+        Base64DecodeInputStream base64 = new Base64DecodeInputStream(trickle)
+        ByteArrayOutputStream baos = new ByteArrayOutputStream()
+        byte[] bytes = new byte[16]
+        int length = 1
+        int bytesRead
+
+        while ( ( bytesRead = base64.read(bytes, 2, length) ) > 0 ) {
+            baos.write(bytes, 2, bytesRead)
+            length = length % 11 + 1
+        }
+
+        assert -1 == base64.read()
+        assert -1 == base64.read(bytes, 0, 4)
+        assert plain == baos.toByteArray()
+
+    }
+
+    /* Decodes an attachment on several threads, with chunks that cut
+     * through quanta and line endings, and compares it to the stream.
+     */
+    @Test
+    void testParallelDecode() throws Exception {
+
+        byte[] plain = new byte[100001]
+
+        new Random(37).nextBytes(plain)
+
+        String crypt = plain.encodeBase64(true).toString()
+
+        File file = File.createTempFile("Pantomime-", ".eml")
+        File decoded = File.createTempFile("Pantomime-", ".bin")
+
+        file.text = "Content-Type: multipart/mixed; boundary=\"b\"\r\n\r\n" +
+            "--b\r\n" +
+            "Content-Type: application/octet-stream\r\n" +
+            "Content-Disposition: attachment; filename=\"a.bin\"\r\n" +
+            "Content-Transfer-Encoding: base64\r\n\r\n" +
+            crypt.replace("\r\n", " \r\n") + "\r\n" +
+            "--b--\r\n"
+
+        FileMessageSource source = new FileMessageSource(file)
+
+        try {
+
+            Message message = source.load()
+            Attachment attachment = message.getAttachments()[0]
+            MimePath path = attachment.getMimePath()
+
+            for ( int chunkSize : [ 5, 77, 1000, 1 << 22 ] ) {
+
+                ParallelBase64Decoder decoder = new ParallelBase64Decoder(
+                    source, source.getBodyStart(path),
+                    source.getBodyEnd(path) + 1, chunkSize)
+
+                RandomAccessFile out = new RandomAccessFile(decoded, "rw")
+
+                try {
+                    out.setLength(0)
+                    assert plain.length ==
+                        decoder.decodeTo(out.getChannel(), 0, 3)
+                } finally {
+                    out.close()
+                }
+
+                assert plain == decoded.bytes
+            }
+
+            assert plain.length == attachment.decodeTo(decoded.toPath(), 4)
+            assert plain == decoded.bytes
+
+        } finally {
+            source.free()
+            file.delete()
+            decoded.delete()
+        }
+
+    }
+
 }
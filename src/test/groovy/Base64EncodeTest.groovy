@@ -79,4 +79,49 @@ class Base64EncodeTest {
         testEncode("Reporting-MTA: dns; rcdn-iport-7.cisco.com\r\n\r\nFinal-Recipient: rfc822;nobody@nowhere.com\r\nAction: failed\r\nStatus: 5.0.0 (permanent failure)\r\nDiagnostic-Code: smtp; 5.1.2 - Bad destination host 'DNS Hard Error looking up nowhere.com (A):  domain has no A record' (delivery attempts: 0)\r\n", 'UmVwb3J0aW5nLU1UQTogZG5zOyByY2RuLWlwb3J0LTcuY2lzY28uY29tDQoNCkZpbmFsLVJlY2lw\r\naWVudDogcmZjODIyO25vYm9keUBub3doZXJlLmNvbQ0KQWN0aW9uOiBmYWlsZWQNClN0YXR1czog\r\nNS4wLjAgKHBlcm1hbmVudCBmYWlsdXJlKQ0KRGlhZ25vc3RpYy1Db2RlOiBzbXRwOyA1LjEuMiAt\r\nIEJhZCBkZXN0aW5hdGlvbiBob3N0ICdETlMgSGFyZCBFcnJvciBsb29raW5nIHVwIG5vd2hlcmUu\r\nY29tIChBKTogIGRvbWFpbiBoYXMgbm8gQSByZWNvcmQnIChkZWxpdmVyeSBhdHRlbXB0czogMCkN\r\nCg==')
     }
 
+    /* Whole 57-byte groups go straight into the caller's array as lines.
+     * Reads of assorted lengths, each followed by a single byte read, end
+     * inside a line, inside its CRLF and on a line boundary, for inputs
+     * that leave 0, 1 or 2 bytes over at the end.
+     */
+    @Test
+    void testLineWrappingReads() throws Exception {
+
+        for ( int size : [ 0, 1, 2, 56, 57, 58, 114, 5700, 5701, 5702 ] ) {
+
+            byte[] plain = new byte[size]
+
+            for ( int index = 0; index < size; index++ ) {
+                plain[index] = (byte)(index * 31)
+            }
+
+            String crypt =
+                new String(java.util.Base64.getMimeEncoder().encode(plain))
+
+            for ( int length = 1; length <= 80; length += 13 ) {
+
+                Base64EncodeInputStream base64 = new Base64EncodeInputStream(
+                    new ByteArrayInputStream(plain))
+                ByteArrayOutputStream baos = new ByteArrayOutputStream()
+                byte[] bytes = new byte[length + 4]
+                int bytesRead
+
+                while ( ( bytesRead = base64.read(bytes, 4, length) ) > 0 ) {
+                    baos.write(bytes, 4, bytesRead)
+
+                    /* single bytes in between, from the same buffer */
+                    int b = base64.read()
+
+                    if ( b != -1 ) {
+                        baos.write(b)
+                    }
+                }
+
+                assert -1 == base64.read()
+                assert crypt == baos.toString('US-ASCII')
+            }
+        }
+
+    }
+
 }
@@ -140,4 +140,107 @@ class ContentModificationTest {
         assert 'content' == message.getAllAttachments()[0].asSinglePart().getBodyAsString()
 
     }
+
+    /* The transfer encoding is worked out when the content is set, and not
+     * again for every transfer encoded read.
+     */
+    @Test
+    void testTransferEncodingReadOnce() throws Exception {
+
+        def message = new FileMessageSource("data/0000.eml").load()
+
+        int opened = 0
+
+        message.asSinglePart().set(new InputStreamSource() {
+
+            public InputStream getInputStream() {
+                opened++
+                return new ByteArrayInputStream('caf\u00E9'.getBytes('utf-8'))
+            }
+
+        }, 'text/plain', 'utf-8');
+
+        assert 1 == opened
+        assert ContentTransferEncoding.QUOTED_PRINTABLE == message.getContentTransferEncoding()
+
+        assertEquals('caf=C3=A9',
+            Util.streamToString(message.asSinglePart().getTransferEncodedBody(), 'utf-8'))
+
+        assert 2 == opened
+
+        message.asSinglePart().set('\u4F60\u597D', 'text/plain', 'utf-8')
+
+        assert ContentTransferEncoding.BASE64 == message.getContentTransferEncoding()
+        assertEquals('5L2g5aW9',
+            Util.streamToString(message.asSinglePart().getTransferEncodedBody(), 'utf-8'))
+    }
+
+    /* Sizes are worked out without encoding, and must match what the
+     * encoders actually produce.
+     */
+    @Test
+    void testTransferEncodedSize() throws Exception {
+
+        def message = Pantomime.alternative('from@from.com',
+            'subject', 'plain', 'html', 'to@to.com')
+
+        StringBuilder builder = new StringBuilder()
+
+        for ( int index = 0; index < 3000; index++ ) {
+            builder.append((char)(32 + (index % 200)))
+        }
+
+        message.addAttachment(builder.toString(), 'latin.txt', 'text/plain')
+        message.addAttachment('\u4F60\u597D' * 500, 'cjk.txt', 'text/plain')
+
+        for ( Part attachment : message.getAllAttachments() ) {
+            def single = attachment.asSinglePart()
+            assert Util.getSize(single.getTransferEncodedBody()) ==
+                single.getTransferEncodedBodySize()
+        }
+
+        def stream = message.serialize()
+        long size = 0
+        while ( stream.read() != -1 ) {
+            size++
+        }
+        stream.close()
+
+        assert size == message.getTransferEncodedSize()
+    }
+
+    /* Multibyte characters that straddle a read buffer come out whole. */
+    @Test
+    void testBodyAsReader() throws Exception {
+
+        StreamMonitor.reset()
+
+        def message = new FileMessageSource("data/0000.eml").load()
+
+        String content = 'a' + ( '\u4F60\u597D\u00E9' * 10000 )
+
+        message.asSinglePart().set(content, 'text/plain', 'utf-8')
+
+        assertEquals(content, message.getPlainBodyAsString())
+
+        Reader reader = message.asSinglePart().getBodyAsReader()
+        StringBuilder builder = new StringBuilder()
+        char[] chars = new char[7]
+        int charsRead
+
+        while ( ( charsRead = reader.read(chars) ) != -1 ) {
+            builder.append(chars, 0, charsRead)
+        }
+
+        reader.close()
+
+        assertEquals(content, builder.toString())
+        assertEquals(content.substring(0, 5),
+            message.asSinglePart().getBodyAsString(5))
+
+        message.asSinglePart().set('\uD83D\uDE00\uD83D\uDE00', 'text/plain', 'utf-8')
+
+        assertEquals('\uD83D\uDE00', message.asSinglePart().getBodyAsString(3))
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
 }
@@ -23,6 +23,7 @@ import org.junit.Test
 import static org.junit.Assert.*
 
 import org.blackmist.pantomime.*
+import org.blackmist.pantomime.content.InputStreamSource
 
 class FileTest {
 
@@ -89,11 +90,12 @@ class FileTest {
 
         assert "0" == message.getMimePath().toString()
 
-        assert 850 == Util.getSize(message.serialize())
-        assertEquals("Return-Path: <camadedijon@pobox.com>\r\nRe",
+        /* untouched, it goes out exactly as it is in the file */
+        assert 831 == Util.getSize(message.serialize())
+        assertEquals("Return-Path: <camadedijon@pobox.com>\nRec",
             Util.streamToString(message.serialize()).substring(0, 40))
-        assertEquals("O\r\nContent-Length: 5\r\nLines: 1\r\n\r\ntest\n\n",
-            Util.streamToString(message.serialize()).substring(810))
+        assertEquals("O\nContent-Length: 5\nLines: 1\n\ntest\n\n",
+            Util.streamToString(message.serialize()).substring(795))
 
         assert 0 == StreamMonitor.unclosedStreams()
 
@@ -2138,4 +2140,244 @@ class FileTest {
         assert 0 == StreamMonitor.unclosedStreams()
     }
 
+    /* Serializing gives the same bytes however the stream is read. */
+    @Test
+    void testSerializeReads() {
+
+        def source = new FileMessageSource('data/0007.eml')
+        def message = source.load()
+
+        def baos = new ByteArrayOutputStream()
+        def stream = message.serialize()
+        int b
+
+        while ( ( b = stream.read() ) != -1 ) {
+            baos.write(b)
+        }
+
+        StreamUtility.close(this, stream)
+
+        byte[] expected = baos.toByteArray()
+
+        assert expected.length > 0
+
+        stream = message.serialize()
+        assert expected == Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        baos = new ByteArrayOutputStream()
+        stream = message.serialize()
+
+        byte[] data = new byte[13]
+        int bytesRead
+
+        while ( ( bytesRead = stream.read(data, 2, 7) ) > 0 ) {
+            assert 7 == bytesRead || -1 == stream.read()
+            baos.write(data, 2, bytesRead)
+        }
+
+        StreamUtility.close(this, stream)
+
+        assert expected == baos.toByteArray()
+
+        source.free()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    /* Untouched bytes go out as they are in the file. */
+    @Test
+    void testSerializeUnchanged() {
+
+        byte[] original = new File('data/0003.eml').bytes
+        def temp = File.createTempFile('serialize', '.eml')
+        temp.bytes = original
+
+        def source = new FileMessageSource(temp.path)
+        def message = source.load()
+
+        def stream = message.serialize()
+        assert original == Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        message.addHeader('X-Trace', 'relay.example.com')
+
+        stream = message.serialize()
+        byte[] serialized = Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        String text = new String(original, 'ISO-8859-1')
+        byte[] body = text.substring(text.indexOf('\n\n') + 2)
+            .getBytes('ISO-8859-1')
+
+        assert serialized.length == message.getTransferEncodedSize()
+        assert new String(serialized, 'ISO-8859-1')
+            .contains('X-Trace: relay.example.com\r\n')
+        assert body == Arrays.copyOfRange(serialized,
+            serialized.length - body.length, serialized.length)
+
+        message.save()
+
+        assert serialized == temp.bytes
+
+        /* a changed leaf is written anew, its untouched sibling subtree
+         * still as it is in the file, line feeds and all */
+        message.getPart(new MimePath('0.0.0')).asSinglePart().set('changed',
+            'text/plain', 'us-ascii')
+
+        stream = message.serialize()
+        String rewritten = new String(Util.streamToBytes(stream), 'ISO-8859-1')
+        StreamUtility.close(this, stream)
+
+        text = new String(temp.bytes, 'ISO-8859-1')
+        String attachment = text.substring(
+            text.indexOf('Content-Type: text/plain; name="test.txt"'),
+            text.indexOf('dGVzdAo=') + 8)
+
+        assert attachment.contains('\n\t')
+        assert rewritten.contains(attachment)
+        assert rewritten.contains('\r\n\r\nchanged\r\n')
+        assert ! rewritten.contains('\n\ntest\n')
+
+        source.free()
+        temp.delete()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    /* Pushes a message that is partly changed to a channel that takes
+     * a few bytes at a time, to a file stream and from a sub-part alone,
+     * and each comes to what serialize() reads.
+     */
+    @Test
+    void testWriteTo() {
+
+        def source = new FileMessageSource('data/attachments.eml')
+        def message = source.load()
+
+        message.getPart(new MimePath('0.0')).asSinglePart().set('new text',
+            'text/plain', 'us-ascii')
+
+        def serialized = { part ->
+            def stream = part.serialize()
+            byte[] bytes = Util.streamToBytes(stream)
+            StreamUtility.close(this, stream)
+            bytes
+        }
+
+        byte[] expected = serialized(message)
+
+        /* a socket-like channel that takes at most 3 bytes per write */
+        def baos = new ByteArrayOutputStream()
+        def trickle = new java.nio.channels.WritableByteChannel() {
+            boolean isOpen() { true }
+            void close() { }
+            int write(java.nio.ByteBuffer buffer) {
+                int count = Math.min(3, buffer.remaining())
+                byte[] bytes = new byte[count]
+                buffer.get(bytes)
+                baos.write(bytes)
+                count
+            }
+        }
+
+        assert expected.length == message.writeTo(trickle)
+        assert expected == baos.toByteArray()
+
+        /* a file stream is written through its channel */
+        def temp = File.createTempFile('writeto', '.eml')
+        def out = new FileOutputStream(temp)
+
+        assert expected.length == message.writeTo(out)
+
+        out.close()
+
+        assert expected == temp.bytes
+
+        def image = message.getPart(new MimePath('0.1'))
+        baos = new ByteArrayOutputStream()
+
+        assert serialized(image).length == image.writeTo(baos)
+        assert serialized(image) == baos.toByteArray()
+
+        source.free()
+        temp.delete()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    /* The size is added up from the parts, without serializing: Base64
+     * bodies of every remainder, Quoted Printable bodies with soft line
+     * breaks and escapes, untouched parts from the file, and changes made
+     * to a header in place.
+     */
+    @Test
+    void testSerializedSize() {
+
+        def source = new FileMessageSource('data/0000.eml')
+        def message = source.load()
+
+        assert new File('data/0000.eml').length() ==
+            message.getSerializedSize()
+
+        source.free()
+
+        message = new Message()
+        message.setSubject('Sized')
+        message.asSinglePart().set('Sized up.', 'text/plain', 'us-ascii')
+
+        for ( int size : [ 0, 1, 2, 57, 58, 4000 ] ) {
+
+            byte[] data = new byte[size]
+
+            for ( int index = 0; index < size; index++ ) {
+                data[index] = (byte)(0x80 + index * 13)
+            }
+
+            def attachment = message.addAttachment(new InputStreamSource() {
+                InputStream getInputStream() {
+                    return new ByteArrayInputStream(data)
+                }
+            }, "data${size}.bin".toString(), 'application/octet-stream')
+
+            /* nothing at all needs no encoding */
+            assert ( size == 0 ? ContentTransferEncoding.SEVEN_BIT :
+                ContentTransferEncoding.BASE64 ) ==
+                attachment.getContentTransferEncoding()
+        }
+
+        String quoted = ('caf\u00e9 = 1 \t\r\n' * 20) + ('x' * 200) + ' '
+        def text = message.addAttachment(new InputStreamSource() {
+            InputStream getInputStream() {
+                return new ByteArrayInputStream(quoted.getBytes('UTF-8'))
+            }
+        }, 'quoted.txt', 'text/plain')
+        text.asSinglePart().set(new InputStreamSource() {
+            InputStream getInputStream() {
+                return new ByteArrayInputStream(quoted.getBytes('UTF-8'))
+            }
+        }, 'text/plain', 'utf-8')
+
+        assert ContentTransferEncoding.QUOTED_PRINTABLE ==
+            text.getContentTransferEncoding()
+
+        long size = message.getSerializedSize()
+
+        assert Util.getSize(message.serialize()) == size
+
+        /* a change made to a header in place is noticed too */
+        message.getFirstHeader('Subject').setValue('Sized again')
+
+        assert size + 6 == message.getSerializedSize()
+        assert Util.getSize(message.serialize()) ==
+            message.getSerializedSize()
+
+        message.removeHeader('Subject')
+
+        assert Util.getSize(message.serialize()) ==
+            message.getSerializedSize()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
 }
@@ -46,6 +46,27 @@ class HeaderModificationTest {
 
     }
 
+    @Test
+    void testRawHeaders() throws Exception {
+
+        def message = new FileMessageSource("data/0000.eml").load()
+
+        def received = 'Received: from smtp.darkfog.org ([10.20.10.20])\n\t by imap.darkfog.org (Cyrus v2.3.14) with LMTPA;\n\t Tue, 23 Jul 2013 14:27:24 +0000\n'
+
+        /* untouched, it goes out folded as it came in */
+        assert Util.streamToString(message.serialize()).contains(received)
+
+        def header = message.getHeaders('received')[0]
+        header.setValue(header.getValue())
+
+        /* touched, it is folded afresh */
+        def serialized = Util.streamToString(message.serialize())
+
+        assert ! serialized.contains(received)
+        assert serialized.contains('Received: ' + header.getTransferEncodedValue() + '\r\n')
+
+    }
+
     @Test
     void testMessage() throws Exception {
         TimeZone.setDefault(TimeZone.getTimeZone("US/Eastern"))
@@ -222,5 +243,85 @@ class HeaderModificationTest {
         message.addBccRecipientStrings(list)
     }
 
+    @Test
+    void testHeaderNameCase() throws Exception {
+
+        def locale = Locale.getDefault()
+
+        try {
+
+            /* no dotless i, whatever the locale */
+            Locale.setDefault(new Locale("tr", "TR"))
+
+            def message = new FileMessageSource("data/0000.eml").load()
+
+            assert message.hasHeader("RECEIVED")
+            assert message.getFirstHeader("content-TYPE").is(
+                message.getContentType())
+            assert message.getHeaders().containsKey("received")
+
+            message.addHeader("X-Custom-Id", "1")
+            message.addHeader("x-custom-ID", "2")
+
+            assert 2 == message.getHeaders("X-CUSTOM-ID").size()
+            assert "X-Custom-Id" == message.getFirstHeader("x-custom-id").getName()
+
+            message.removeHeader("X-CUSTOM-ID")
+
+            assert ! message.hasHeader("x-custom-id")
+            assert message.getHeaders().keySet().every { it == it.toLowerCase(Locale.ROOT) }
+
+        } finally {
+            Locale.setDefault(locale)
+        }
+    }
+
+
+    @Test
+    void testBulkRecipients() throws Exception {
+        def message = new FileMessageSource("data/0000.eml").load()
+        def serialize = {
+            def stream = message.serialize()
+            def text = new String(stream.bytes, 'ISO-8859-1')
+            StreamUtility.close(this, stream)
+            text
+        }
+        def raw = serialize()
+
+        /* nothing removed, nothing rewritten */
+        message.removeToRecipient('nobody@bravo-cat.net')
+        assert raw == serialize()
+
+        def addresses = (0..<10000).collect { "user${it}@bravo-cat.net".toString() }
+
+        message.addBccRecipientStrings(addresses)
+        message.addBccRecipient('last@bravo-cat.net')
+        message.removeBccRecipient('user5000@bravo-cat.net')
+
+        def recipients = message.getBccRecipients()
+        assert 10000 == recipients.size()
+        assert 'user4999@bravo-cat.net' == recipients[4999].toString()
+        assert 'user5001@bravo-cat.net' == recipients[5000].toString()
+        assert 'last@bravo-cat.net' == recipients[9999].toString()
+
+        def value = message.getFirstHeader('bcc').getValue()
+        assert value.startsWith('user0@bravo-cat.net, user1@bravo-cat.net, ')
+        assert value.endsWith(', user9999@bravo-cat.net, last@bravo-cat.net')
+
+        message.addHeader('To', 'second@bravo-cat.net, "barbee" <barbee@darkfog.org>')
+        message.removeToRecipient('barbee@darkfog.org')
+        assert '[second@bravo-cat.net]' == message.getToRecipients().toString()
+
+        def serialized = serialize()
+        assert serialized.contains('user5001@bravo-cat.net')
+        assert ! serialized.contains('user5000@bravo-cat.net')
+        assert ! serialized.contains('To: barbee')
+        assert message.getSerializedSize() == serialized.length()
+        assert 0 == StreamMonitor.unclosedStreams()
+
+        message.setBccRecipients([])
+        assert [] == message.getBccRecipients()
+    }
+
 
 }
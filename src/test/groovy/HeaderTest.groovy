@@ -28,6 +28,7 @@ class HeaderTest {
  
     @Test
     void testDateWithoutDayOfWeek() throws Exception {
+        TimeZone.setDefault(TimeZone.getTimeZone("US/Eastern"))
 
         def header = new Header()
         header.setName('Date')
@@ -51,6 +52,56 @@ class HeaderTest {
 
     }
 
+    @Test
+    void testDateTime() throws Exception {
+
+        def header = new Header()
+        header.setName('Date')
+
+        def dates = [
+            'Sun, 18 Oct 2015 01:01:16 -0400' : '2015-10-18T01:01:16-04:00',
+            '18 Oct 2015 01:01:16 -0400' : '2015-10-18T01:01:16-04:00',
+            'Sunday, 8 October 2015 01:01 +0530' : '2015-10-08T01:01+05:30',
+            ' Sun,  18 Oct\r\n 15 01:01:16 EDT (Eastern)' : '2015-10-18T01:01:16-04:00',
+            'Sun, 18 Oct 99 01:01:16 PST' : '1999-10-18T01:01:16-08:00',
+            'Sun, 18 Oct 2015 01:01:16 GMT' : '2015-10-18T01:01:16Z',
+            'Sun, 18 Oct 2015 01:01:16 A' : '2015-10-18T01:01:16Z',
+            'Sun, 18 Oct 2015 01:01:16' : '2015-10-18T01:01:16Z',
+            'Sun, 18 Oct 2015 01:01:16 +04:00' : '2015-10-18T01:01:16+04:00',
+            'Sun, 18 Oct 2015 01:01:16 -0400 (EDT)' : '2015-10-18T01:01:16-04:00',
+            '18-Oct-2015 01:01:16 -0400' : '2015-10-18T01:01:16-04:00',
+            'Sun Oct 18 01:01:16 2015' : '2015-10-18T01:01:16Z',
+            'Sun, 29 Feb 2015 01:01:16 -0400' : null,
+            'Sun, 18 Oct 2015 25:01:16 -0400' : null,
+            'Sun, 18 Oct 2015' : null,
+            'Sun, 18 Oct 2015 01:01:16 -040' : null,
+            'Sun, 18 Oct 2015 01:01:16 +1800' : '2015-10-18T01:01:16+18:00',
+            'Sun, 18 Oct 2015 01:01:16 +1830' : null,
+            'Sun, 18 Oct 2015 01:01:16 -1859' : null,
+            'Marathon 18 2015 01:01:16 -0400' : null,
+            'Sunny, 18 Oct 2015 01:01:16 -0400' : null,
+            'WEDNESDAY, 21 OCT 2015 01:01:16 -0400' : '2015-10-21T01:01:16-04:00'
+        ]
+
+        dates.each { value, expected ->
+            header.setValue(value)
+            assert expected == header.getValueAsDateTime()?.toString()
+        }
+
+        /* out of range, so now, as for any other broken date */
+        header.setValue('Sun, 18 Oct 2015 01:01:16 +1830')
+        assert Math.abs(System.currentTimeMillis() -
+            header.getValueAsDate().getTimeInMillis()) < 60000
+
+        header.setValue('Sun, 18 Oct 2015 01:01:16 -0400')
+        assert header.getValueAsDateTime().is(header.getValueAsDateTime())
+        assert 1445144476000L == header.getValueAsDate().getTimeInMillis()
+
+        def message = new Message()
+        message.setHeader(header)
+        assert '2015-10-18T01:01:16-04:00' == message.getDateTime().toString()
+    }
+
     @Test
     void testBasic() throws Exception {
 
@@ -219,6 +270,23 @@ class HeaderTest {
         assertEquals("DKIM-Signature: v=1; a=rsa-sha256; c=relaxed/simple; d=oliveoil.com;\r\n i=@oliveoil.com; l=1445; q=dns/txt; s=iport; t=1374840345; x=1376049945;\r\n h=from:to:subject:date:message-id:mime-version;\r\n bh=5Ov/R6NMnVpyEr0Sa4zwSX2uF9Kk6FSjxJ8ziDlfhwQ=;\r\n b=ZYNTC701QPgVwEchNfZRXS9xfcqidtaoJQYLx3YcwpAsWHMffKryJ4pi\r\n HMTgTlfbmm+GvBKKDB3WMOEBd45LsBcB+MQplpuVBmoikb90Lb/K5EcZ1\r\n 1jSW2O9Te3DccbC7DQt2+BrntyJbJm6dMjUwOjbFAYW4QGkLNi3XLySvv o=;", header.getTransferEncodedValue());
     }
 
+    @Test
+    void testEncodedWords() throws Exception {
+
+        def header = new Header()
+        header.setName('Subject')
+
+        header.setTransferEncodedValue('=?utf-8?B?5L2g?=\r\n\t=?UTF-8?b?5aW9?= =?iso-8859-1?Q?D=EDas?= !')
+        assert '\u4F60\u597DD\u00EDas !' == header.getValue()
+
+        header.setTransferEncodedValue('a=?b c =?utf-8?Q?=C2=A1Hola!?= =?utf-8*es?Q?Hola_?=')
+        assert 'a=?b c \u00A1Hola!Hola ' == header.getValue()
+
+        header.setTransferEncodedValue('plain text, 50% =?off?')
+        assert 'plain text, 50% =?off?' == header.getValue()
+
+    }
+
     @Test
     void testMixedQuotedPrintable() throws Exception {
 
@@ -230,5 +298,30 @@ class HeaderTest {
         assert header.getValue().length() > 0
 
     }
-    
+
+    @Test
+    void testSubFields() throws Exception {
+
+        def header = new Header()
+        header.setName('Content-Type')
+        header.setValue('Text/Plain; CHARSET="utf-8"; format=flowed; format=fixed')
+
+        assert 'text/plain' == header.getMainField()
+        assert 'utf-8' == header.getSubField('charset')
+        assert 'utf-8' == header.getSubField('Charset')
+        assert 'fixed' == header.getSubField('format')
+        assert null == header.getSubField('boundary')
+
+        /* parameters go with the value they came from */
+        header.setValue('multipart/mixed; boundary=abc')
+
+        assert 'multipart/mixed' == header.getMainField()
+        assert 'abc' == header.getSubField('boundary')
+        assert null == header.getSubField('charset')
+
+        header = new Header()
+        assert null == header.getMainField()
+        assert null == header.getSubField('charset')
+    }
+
 }
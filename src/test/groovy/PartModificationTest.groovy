@@ -338,4 +338,315 @@ class PartModificationTest {
         assert '1.0' == message.getFirstHeader('MIME-Version').getValue()
 
     }
+
+    /* Only the new bodies that need encoding go to the executor, each once
+     * per serialization, and reading them ahead changes no bytes. */
+    @Test
+    void testSerializeAhead() throws Exception {
+
+        def file = new FileMessageSource('data/attachments.eml')
+        def message = file.load()
+
+        byte[] data = new byte[300000]
+
+        for ( int index = 0; index < data.length; index++ ) {
+            data[index] = (byte)( index % 251 )
+        }
+
+        byte[] text = ('caf\u00e9 au lait\r\n' * 2000).getBytes('UTF-8')
+
+        message.getPart(new MimePath('0.0')).asSinglePart().set('new text',
+            'text/plain', 'us-ascii')
+        message.addAttachment(source(data), 'data.bin',
+            'application/octet-stream')
+        def notes = message.addAttachment(source(text), 'notes.txt')
+        notes.asSinglePart().set(source(text), 'text/plain', 'utf-8')
+
+        def stream = message.serialize()
+        byte[] expected = Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        def executor = new java.util.concurrent.ThreadPoolExecutor(2, 2, 0,
+            java.util.concurrent.TimeUnit.SECONDS,
+            new java.util.concurrent.LinkedBlockingQueue<Runnable>())
+
+        try {
+
+            stream = message.serialize(executor)
+            assert expected == Util.streamToBytes(stream)
+            StreamUtility.close(this, stream)
+
+            def baos = new ByteArrayOutputStream()
+            assert expected.length == message.writeTo(baos, executor)
+            assert expected == baos.toByteArray()
+
+            /* let go before the end */
+            stream = message.serialize(executor)
+            stream.read(new byte[100])
+            StreamUtility.close(this, stream)
+
+        } finally {
+            executor.shutdown()
+        }
+
+        assert executor.awaitTermination(10,
+            java.util.concurrent.TimeUnit.SECONDS)
+
+        /* the Base64 and the Quoted Printable body, three times over; the
+         * new text and the parts from the file need no encoding */
+        assert 6 == executor.getCompletedTaskCount()
+
+        file.free()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    /* The template encodes each body once, and no copy reads a source
+     * again, whatever is changed in it. */
+    @Test
+    void testMessageTemplate() throws Exception {
+
+        byte[] data = new byte[200000]
+        def opened = 0
+
+        for ( int index = 0; index < data.length; index++ ) {
+            data[index] = (byte)( index % 253 )
+        }
+
+        def counted = new InputStreamSource() {
+            InputStream getInputStream() {
+                opened++
+                return new ByteArrayInputStream(data)
+            }
+        }
+
+        def message = new Message()
+
+        message.setSubject("Newsletter")
+        message.asSinglePart().set("Dear reader,", "text/plain", "utf-8")
+        message.addAttachment(counted, 'data.bin', 'application/octet-stream')
+
+        def template = new MessageTemplate(message)
+        def afterTemplate = opened
+
+        /* later changes to the message stay out of the template */
+        message.setSubject("Changed")
+
+        def first = template.newMessage()
+        def second = template.newMessage()
+
+        first.addToRecipient("first@example.com")
+        first.getPart(new MimePath("0.0")).asSinglePart().set("Dear first,",
+            "text/plain", "utf-8")
+
+        assert "Dear first," ==
+            first.getPart(new MimePath("0.0")).asSinglePart().getBodyAsString()
+        assert "Dear reader," ==
+            second.getPart(new MimePath("0.0")).asSinglePart().getBodyAsString()
+        assert second.getToRecipients().isEmpty()
+        assert "Newsletter" == second.getSubject()
+
+        def stream = first.getAllAttachments()[0].asSinglePart().getBody()
+        assert data == Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        def baos = new ByteArrayOutputStream()
+        assert first.getSerializedSize() == first.writeTo(baos)
+        assert baos.toString("US-ASCII").contains("first@example.com")
+
+        stream = second.serialize()
+        String secondText = new String(Util.streamToBytes(stream), "US-ASCII")
+        StreamUtility.close(this, stream)
+
+        assert secondText.contains("Subject: Newsletter")
+        assert ! secondText.contains("first@example.com")
+
+        /* the attachment went out twice, encoded from what the template
+         * kept */
+        assert afterTemplate == opened
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    /* Kept bodies are copied rather than read again, the least recently
+     * used are dropped beyond the limits, and a new body drops the old. */
+    @Test
+    void testEncodedBodyCache() throws Exception {
+
+        def opened = [:].withDefault { 0 }
+
+        def counted = { String name, int size ->
+            byte[] data = new byte[size]
+
+            for ( int index = 0; index < size; index++ ) {
+                data[index] = (byte)( index * 7 + name.hashCode() )
+            }
+
+            new InputStreamSource() {
+                InputStream getInputStream() {
+                    opened[name]++
+                    return new ByteArrayInputStream(data)
+                }
+            }
+        }
+
+        def serialize = { message ->
+            def stream = message.serialize()
+            byte[] bytes = Util.streamToBytes(stream)
+            StreamUtility.close(this, stream)
+            bytes
+        }
+
+        def message = new Message()
+
+        message.asSinglePart().set("test", "text/plain", "utf-8")
+
+        /* about 4100 bytes each once encoded: one fits in memory, and one
+         * more on disk */
+        for ( String name : [ 'a', 'b', 'c' ] ) {
+            message.addAttachment(counted(name, 3000), name + '.bin',
+                'application/octet-stream')
+        }
+
+        def cache = new EncodedBodyCache(5000, 5000)
+        message.setEncodedBodyCache(cache)
+
+        byte[] expected = serialize(message)
+
+        /* c in memory, b moved to disk, a dropped */
+        assert 0 < cache.getMemoryUsed()
+        assert 5000 >= cache.getMemoryUsed()
+        assert 0 < cache.getDiskUsed()
+        assert 5000 >= cache.getDiskUsed()
+
+        def attachments = message.getAllAttachments()
+
+        opened.clear()
+        serialize(attachments[2])
+        serialize(attachments[1])
+        assert opened.isEmpty()
+
+        serialize(attachments[0])
+        assert [ a: 1 ] == opened
+
+        assert expected == serialize(message)
+
+        /* a new body drops the old one */
+        cache.clear()
+        cache = new EncodedBodyCache(100000, 100000)
+        message.setEncodedBodyCache(cache)
+        serialize(message)
+
+        long memoryUsed = cache.getMemoryUsed()
+        message.getAllAttachments()[0].asSinglePart().set(counted('d', 3000),
+            'application/octet-stream', null)
+
+        assert memoryUsed > cache.getMemoryUsed()
+
+        opened.clear()
+        serialize(message)
+        assert [ d: 1 ] == opened
+
+        cache.clear()
+        assert 0 == cache.getMemoryUsed()
+        assert 0 == cache.getDiskUsed()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    @Test
+    void testSerializationPolicy() throws Exception {
+
+        /* every byte value, NUL and a lone CR among them */
+        byte[] binary = new byte[3000]
+
+        for ( int index = 0; index < binary.length; index++ ) {
+            binary[index] = (byte) index
+        }
+
+        byte[] latin = ("caf\u00e9\r\n" * 10).getBytes("UTF-8")
+        byte[] bareLineFeeds = ("th\u00e9\n" * 10).getBytes("UTF-8")
+        byte[] longText = ('\u00e9' * 600).getBytes("UTF-8")
+
+        def message = new Message()
+
+        message.asSinglePart().set("test", "text/plain", "utf-8")
+
+        def text = message.addAttachment(source(latin), 'text.txt')
+        def data = message.addAttachment(source(binary), 'data.bin',
+            'application/octet-stream')
+        def longLine = message.addAttachment(source(longText), 'long.txt')
+        def unix = message.addAttachment(source(bareLineFeeds), 'unix.txt')
+
+        text.asSinglePart().set(source(latin), 'text/plain', 'utf-8')
+        longLine.asSinglePart().set(source(longText), 'text/plain', 'utf-8')
+        unix.asSinglePart().set(source(bareLineFeeds), 'text/plain', 'utf-8')
+
+        def serialize = { policy ->
+            def stream = message.serialize(policy)
+            byte[] bytes = Util.streamToBytes(stream)
+            StreamUtility.close(this, stream)
+            return bytes
+        }
+
+        def contains = { byte[] bytes, byte[] part ->
+            Collections.indexOfSubList(bytes.toList(), part.toList()) != -1
+        }
+
+        byte[] sevenBit = serialize(SerializationPolicy.SEVEN_BIT)
+        def stream = message.serialize()
+        assert sevenBit == Util.streamToBytes(stream)
+        StreamUtility.close(this, stream)
+
+        byte[] eightBit = serialize(SerializationPolicy.EIGHT_BIT_MIME)
+        String eightBitText = new String(eightBit, "ISO-8859-1")
+
+        assert eightBit.length < sevenBit.length
+        assert contains(eightBit, latin)
+        assert eightBitText.contains("Content-Transfer-Encoding: 8bit")
+        assert eightBitText.contains("Content-Transfer-Encoding: base64")
+        assert ! contains(eightBit, binary)
+        assert ! contains(eightBit, bareLineFeeds)
+        assert eightBitText.contains("Content-Transfer-Encoding: quoted-printable")
+
+        byte[] binaryMime = serialize(SerializationPolicy.BINARY_MIME)
+        String binaryMimeText = new String(binaryMime, "ISO-8859-1")
+
+        assert contains(binaryMime, binary)
+        assert contains(binaryMime, longText)
+        assert contains(binaryMime, bareLineFeeds)
+        assert ! binaryMimeText.contains("Content-Transfer-Encoding: base64")
+        assert ! binaryMimeText.contains("quoted-printable")
+
+        /* the message itself stays as it was */
+        assert ContentTransferEncoding.QUOTED_PRINTABLE ==
+            text.getContentTransferEncoding()
+        assert ContentTransferEncoding.BASE64 ==
+            data.getContentTransferEncoding()
+        assert ContentTransferEncoding.QUOTED_PRINTABLE ==
+            longLine.getContentTransferEncoding()
+        assert sevenBit == serialize(SerializationPolicy.SEVEN_BIT)
+
+        def baos = new ByteArrayOutputStream()
+        assert binaryMime.length ==
+            message.writeTo(baos, SerializationPolicy.BINARY_MIME)
+        assert binaryMime == baos.toByteArray()
+
+        baos = new ByteArrayOutputStream()
+        assert eightBit.length == message.writeTo(
+            java.nio.channels.Channels.newChannel(baos),
+            SerializationPolicy.EIGHT_BIT_MIME)
+        assert eightBit == baos.toByteArray()
+
+        assert 0 == StreamMonitor.unclosedStreams()
+    }
+
+    private static InputStreamSource source(byte[] data) {
+
+        return new InputStreamSource() {
+            InputStream getInputStream() {
+                return new ByteArrayInputStream(data)
+            }
+        }
+    }
 }
@@ -78,6 +78,18 @@ class QuotedPrintableDecodeTest {
 
         testDecode("xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx=\r\n", "xxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxxx");
     }
+
+    @Test
+    void testHighBytes() throws Exception {
+
+        def QuotedPrintable = new QuotedPrintableDecodeInputStream(
+            new ByteArrayInputStream("=FF=3D".getBytes()))
+
+        assert 255 == QuotedPrintable.read()
+        assert 61 == QuotedPrintable.read()
+        assert -1 == QuotedPrintable.read()
+
+    }
 /*
     @Test
     void testBalh() throws Exception {
@@ -70,4 +70,49 @@ class QuotedPrintableEncodeTest {
 
     }
 
+    @Test
+    void testLongLines() throws Exception {
+
+        String plain = ("x" * 200) + "=" + (" " * 160)
+        String crypt = ("x" * 75) + "=\r\n" + ("x" * 75) + "=\r\n" +
+            ("x" * 50) + "=3D" + (" " * 22) + "=\r\n" + (" " * 75) + "=\r\n" +
+            (" " * 63)
+
+        testEncode(plain, crypt)
+        testEncode(plain, crypt.replace(' ', '_'), true)
+
+        def baos = new ByteArrayOutputStream()
+
+        def quotedPrintable = new QuotedPrintableEncodeOutputStream(baos)
+
+        quotedPrintable.write(plain.getBytes())
+        quotedPrintable.close()
+
+        assertEquals(crypt, baos.toString())
+
+        def encoder = new QuotedPrintableEncoder(false)
+
+        assertEquals(crypt.length(),
+            encoder.count(plain.getBytes(), 0, plain.length()))
+
+    }
+
+    @Test
+    void testOutputStream() throws Exception {
+
+        String plain = "If you believe that truth=beauty, then surely mathematics is the most beautiful branch of philosophy.\r\n"
+
+        def baos = new ByteArrayOutputStream()
+
+        def quotedPrintable = new QuotedPrintableEncodeOutputStream(baos)
+
+        quotedPrintable.write(plain.getBytes(), 0, 10)
+        quotedPrintable.write(plain.getBytes()[10])
+        quotedPrintable.write(plain.getBytes(), 11, plain.length() - 11)
+        quotedPrintable.close()
+
+        assertEquals("If you believe that truth=3Dbeauty, then surely mathematics is the most bea=\r\nutiful branch of philosophy.=0D=0A", baos.toString())
+
+    }
+
 }
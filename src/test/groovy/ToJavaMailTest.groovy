@@ -21,6 +21,7 @@ import jakarta.mail.internet.InternetAddress
 import jakarta.mail.internet.MimeBodyPart
 import jakarta.mail.internet.MimeMessage
 import jakarta.mail.internet.MimeMultipart
+import jakarta.mail.internet.SharedInputStream
 
 import junit.framework.JUnit4TestAdapter
 
@@ -77,7 +78,7 @@ class ToJavaMailTest {
         def part1_1 = multipart.getBodyPart(0)
         def part1_2 = multipart.getBodyPart(1)
 
-        assertEquals("test\r\n", part1_1.getContent())
+        assertEquals("test\n", part1_1.getContent())
         assert part1_2.getContent().startsWith('<html>')
 
         assertEquals("test\n", part2.getContent())
@@ -105,9 +106,76 @@ class ToJavaMailTest {
 
         def part1 = multipart.getBodyPart(0)
 
-        assertEquals("If you believe that truth=beauty, then surely mathematics is the most beautiful branch of philosophy.\r\n", part1.getContent())
+        assertEquals("If you believe that truth=beauty, then surely mathematics is the most beautiful branch of philosophy.\n", part1.getContent())
 
         assert 0 == StreamMonitor.unclosedStreams()
     }
 
+    /* The view streams its body from the Pantomime message. */
+    @Test
+    void testWriteTo() throws Exception {
+
+        def message = Pantomime.alternative('from@from.com',
+            'subject', 'plain', 'html', 'to@to.com')
+
+        message.addAttachment('content', 'file.txt', 'text/plain')
+
+        def session = Session.getDefaultInstance(new Properties())
+
+        def mime = message.toJavaMail(session)
+
+        def baos = new ByteArrayOutputStream()
+
+        mime.writeTo(baos)
+
+        def written = new String(baos.toByteArray())
+        def serialized = new String(Util.streamToBytes(message.serialize()))
+
+        assertEquals(serialized.substring(serialized.indexOf('\r\n\r\n')),
+            written.substring(written.indexOf('\r\n\r\n')))
+
+        assertEquals('subject', mime.getSubject())
+        assertEquals('to@to.com', mime.getAllRecipients()[0].toString())
+        assert mime.getHeader('Message-ID') != null
+
+        def multipart = (Multipart)mime.getContent()
+
+        assert 2 == multipart.getCount()
+        assertEquals('content', multipart.getBodyPart(1).getContent().trim())
+    }
+
+    /* JavaMail parses over the file without copying it. */
+    @Test
+    void testSharedInputStream() throws Exception {
+
+        def source = new FileMessageSource("data/0003.eml")
+        def message = source.load()
+
+        def session = Session.getDefaultInstance(new Properties())
+
+        def stream = source.getSharedInputStream()
+
+        assert stream instanceof SharedInputStream
+
+        def mime = new MimeMessage(session, stream)
+
+        assertEquals("test 0800.", mime.getSubject())
+
+        def multipart = (Multipart)mime.getContent()
+
+        assert 2 == multipart.getCount()
+
+        def alternative = (Multipart)multipart.getBodyPart(0).getContent()
+
+        assertEquals("test\n", alternative.getBodyPart(0).getContent())
+        assertEquals("test\n", multipart.getBodyPart(1).getContent())
+
+        def raw = new String(new File("data/0003.eml").bytes)
+
+        assertEquals(raw.substring(raw.indexOf("\n\n") + 2),
+            new String(Util.streamToBytes(mime.getRawInputStream())))
+
+        Pantomime.free(message)
+    }
+
 }